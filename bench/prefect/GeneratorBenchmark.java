@@ -0,0 +1,88 @@
+package prefect;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Time per value of summing values streamed out of a generator, next to a
+ script that collects the same values into a dictionary first. Each
+ operation sums one chunk, and every iteration starts a fresh interpreter,
+ so the dictionary keeps growing through an iteration the way it would in
+ a script. Run with the GC profiler to see what each one leaves for the
+ collector:
+
+     java -jar bench/target/benchmarks.jar GeneratorBenchmark -prof gc
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeneratorBenchmark {
+    private static final int CHUNK = 100_000;
+
+    private static final String GENERATOR =
+            "define numbers() { var i = 0; while (true) { yield i; i = i + 1; } }\n" +
+            "var source = numbers();\n" +
+            "define chunk(n) { return reduce(take(source, n), lambda(a, b) { return a + b; }, 0); }\n";
+
+    private static final String DICTIONARY =
+            "dictionary all;\n" +
+            "var filled = 0;\n" +
+            "define chunk(n) {\n" +
+            "    var sum = 0;\n" +
+            "    for (var i = 0; i < n; i = i + 1) { all[filled] = filled; filled = filled + 1; }\n" +
+            "    for (var i = filled - n; i < filled; i = i + 1) sum = sum + all[i];\n" +
+            "    return sum;\n" +
+            "}\n";
+
+    @Param({"generator", "dictionary"})
+    public String script;
+
+    private Interpreter interpreter;
+    private List<Stmt> chunk;
+
+    @Setup(Level.Iteration)
+    public void setup()
+    {
+        Output output = new Output(OutputStream.nullOutputStream(), Output.FlushPolicy.SIZE);
+        interpreter = new Interpreter(output, new Input(InputStream.nullInputStream()));
+        interpreter.interpret(compile(script.equals("generator") ? GENERATOR : DICTIONARY));
+        chunk = compile("chunk(" + CHUNK + ");");
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CHUNK)
+    public Interpreter sum()
+    {
+        interpreter.interpret(chunk);
+        return interpreter;
+    }
+
+    private List<Stmt> compile(String source)
+    {
+        List<Stmt> statements = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(statements);
+        if (Main.hadError)
+            throw new IllegalStateException(script + " doesn't compile.");
+
+        return statements;
+    }
+}
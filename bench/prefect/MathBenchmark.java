@@ -0,0 +1,112 @@
+package prefect;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Compares the math natives against the implementations they replaced: the
+ Newton iteration sqrt truncated to 0.001, and round through '%'. Both the
+ bare Java functions, over a run of arguments, and a script calling sqrt in
+ a loop are timed. Run with:
+
+     java -jar bench/target/benchmarks.jar MathBenchmark
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MathBenchmark {
+    // How many arguments are tried before starting over, and how many
+    // times the script loop goes round.
+    private static final int COUNT = 5_000_000;
+    private static final int LOOP = 100_000;
+
+    private int i;
+    private Interpreter interpreter;
+    private List<Stmt> loop;
+
+    @Setup
+    public void setup()
+    {
+        i = 0;
+
+        Output output = new Output(OutputStream.nullOutputStream(), Output.FlushPolicy.SIZE);
+        interpreter = new Interpreter(output, new Input(InputStream.nullInputStream()));
+        String source = "var sum = 0; for (var i = 0; i < " + LOOP + "; i = i + 1) sum = sum + sqrt(i);";
+        loop = new Parser(new Scanner(source).scanTokens()).parse();
+        new Resolver(interpreter).resolve(loop);
+    }
+
+    @Benchmark
+    public double newtonSqrt()
+    {
+        return newtonSqrt(next());
+    }
+
+    @Benchmark
+    public double mathSqrt()
+    {
+        return Math.sqrt(next());
+    }
+
+    @Benchmark
+    public double modRound()
+    {
+        double x = next();
+        return x - x % 1.0;
+    }
+
+    @Benchmark
+    public double mathFloor()
+    {
+        return Math.floor(next());
+    }
+
+    // Per round of the loop.
+    @Benchmark
+    @OperationsPerInvocation(LOOP)
+    public Interpreter script()
+    {
+        interpreter.interpret(loop);
+        return interpreter;
+    }
+
+    private double next()
+    {
+        double x = i + 0.5;
+        if (++i == COUNT)
+            i = 0;
+
+        return x;
+    }
+
+    // The sqrt native as it was.
+    private static double newtonSqrt(double x)
+    {
+        double aprox = 1.0;
+        int steps = 0;
+        while (Math.abs(aprox * aprox - x) > 0.001 && steps < 1000)
+        {
+            aprox = 0.5 * (aprox + x / aprox);
+            steps = steps + 1;
+        }
+
+        return aprox - aprox % 0.001;
+    }
+}
@@ -0,0 +1,80 @@
+package prefect;
+
+import java.io.OutputStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Compares printing numbers the way stringify used to, Double.toString with
+ the ".0" cut off, against Output.println(double), for whole numbers and for
+ fractions. Each operation prints the next of a run of numbers to a null
+ stream. Run with the GC profiler to get bytes allocated per number:
+
+     java -jar bench/target/benchmarks.jar NumberFormatBenchmark -prof gc
+*/
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NumberFormatBenchmark {
+    // How many numbers are printed before starting over from 0.
+    private static final int COUNT = 5_000_000;
+
+    // 1.0 gives whole numbers, 0.37 fractions.
+    @Param({"1.0", "0.37"})
+    public double step;
+
+    private Output output;
+    private int i;
+
+    @Setup
+    public void setup()
+    {
+        output = new Output(OutputStream.nullOutputStream(), Output.FlushPolicy.SIZE);
+        i = 0;
+    }
+
+    @Benchmark
+    public void old()
+    {
+        output.println(oldStringify(next()));
+    }
+
+    @Benchmark
+    public void println()
+    {
+        output.println(next());
+    }
+
+    private double next()
+    {
+        double value = i * step;
+        if (++i == COUNT)
+            i = 0;
+
+        return value;
+    }
+
+    private static String oldStringify(double value)
+    {
+        String text = Double.toString(value);
+        if (text.endsWith(".0"))
+        {
+            text = text.substring(0, text.length() - 2);
+        }
+        return text;
+    }
+}
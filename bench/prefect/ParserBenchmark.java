@@ -0,0 +1,76 @@
+package prefect;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Parse time over a generated source of roughly the given size. Only
+ Parser.parse is timed, the token list is scanned once in setup. Run with:
+
+     java -jar bench/target/benchmarks.jar ParserBenchmark -p megabytes=4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ParserBenchmark {
+    @Param({"4"})
+    public int megabytes;
+
+    private List<Token> tokens;
+
+    @Setup
+    public void setup()
+    {
+        tokens = new Scanner(generate(megabytes * 1024 * 1024)).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        List<Stmt> statements = new Parser(tokens).parse();
+        if (statements.isEmpty())
+            throw new IllegalStateException("Nothing was parsed.");
+
+        return statements;
+    }
+
+    // Mixes the constructs found in real scripts: declarations, loops,
+    // calls, dictionaries, lambdas and long operator chains.
+    static String generate(int size)
+    {
+        StringBuilder source = new StringBuilder(size + 1024);
+        int i = 0;
+        while (source.length() < size)
+        {
+            source.append("define f").append(i).append("(a, b, c)\n{\n")
+                  .append("    var x = a * b + c - (a % 3) / 2;\n")
+                  .append("    dictionary d;\n")
+                  .append("    for (var i = 0; i < a and i <= b or !c; i = i + 1)\n    {\n")
+                  .append("        d[i] = i * 2 + 1 > x ? -x : x == i;\n")
+                  .append("        if (d[i] != nil) x = x + d[i]; else x = f").append(i).append("(x, i, 1);\n")
+                  .append("    }\n")
+                  .append("    var g = lambda(y) { return y * y + x; };\n")
+                  .append("    return g(x) + \"text\";\n")
+                  .append("}\n")
+                  .append("var v").append(i).append(" = f").append(i).append("(1, 2, 3) + 4 * 5 - 6 / 7;\n");
+            i++;
+        }
+
+        return source.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package prefect;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ JMH throughput of each stage of the pipeline, scanning, parsing, resolving
+ and interpreting, over the programs in bench/corpus. Every stage starts from
+ the output of the previous one, prepared once in setup. Run with the GC
+ profiler to get allocation rates as well:
+
+     java -jar bench/target/benchmarks.jar PipelineBenchmark -prof gc
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class PipelineBenchmark {
+    @Param({"heapsort", "fib", "strings", "dictionaries"})
+    public String program;
+
+    private String source;
+    private List<Token> tokens;
+    private List<Stmt> statements;
+    private Interpreter resolving;
+
+    @Setup
+    public void setup() throws IOException
+    {
+        try (InputStream in = PipelineBenchmark.class.getResourceAsStream("/corpus/" + program + ".pf")) {
+            if (in == null)
+                throw new IOException("No corpus program " + program + ".");
+            source = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+        }
+
+        tokens = new Scanner(source).scanTokens();
+        statements = new Parser(tokens).parse();
+        resolving = interpreter();
+        new Resolver(resolving).resolve(statements);
+
+        if (Main.hadError)
+            throw new IllegalStateException(program + " doesn't compile.");
+    }
+
+    @Benchmark
+    public List<Token> scan()
+    {
+        return new Scanner(source).scanTokens();
+    }
+
+    @Benchmark
+    public List<Stmt> parse()
+    {
+        return new Parser(tokens).parse();
+    }
+
+    @Benchmark
+    public Resolver resolve()
+    {
+        // Resolving again only rewrites the same depths into the tree.
+        Resolver resolver = new Resolver(resolving);
+        resolver.resolve(statements);
+        return resolver;
+    }
+
+    @Benchmark
+    public Interpreter interpret()
+    {
+        Interpreter interpreter = interpreter();
+        interpreter.interpret(statements);
+        return interpreter;
+    }
+
+    // Printing goes nowhere, and a fresh interpreter gets fresh globals.
+    private static Interpreter interpreter()
+    {
+        Output output = new Output(OutputStream.nullOutputStream(), Output.FlushPolicy.SIZE);
+        return new Interpreter(output, new Input(InputStream.nullInputStream()));
+    }
+}
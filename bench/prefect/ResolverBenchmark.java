@@ -0,0 +1,94 @@
+package prefect;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Resolution time over a generated script with deeply nested blocks, each
+ declaring a batch of locals that read variables from every level above.
+ Only Resolver.resolve is timed; the script is parsed once in setup. Run
+ with:
+
+     java -jar bench/target/benchmarks.jar ResolverBenchmark -p depth=2000
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xss64m")
+public class ResolverBenchmark {
+    @Param({"2000"})
+    public int depth;
+
+    private List<Stmt> statements;
+    private Interpreter interpreter;
+
+    @Setup
+    public void setup()
+    {
+        statements = new Parser(new Scanner(generate(depth, 8)).scanTokens()).parse();
+        Output output = new Output(OutputStream.nullOutputStream(), Output.FlushPolicy.SIZE);
+        interpreter = new Interpreter(output, new Input(InputStream.nullInputStream()));
+    }
+
+    @Benchmark
+    public Resolver resolve()
+    {
+        // Resolving again only rewrites the same depths into the tree.
+        Resolver resolver = new Resolver(interpreter);
+        resolver.resolve(statements);
+        return resolver;
+    }
+
+    // Every local is read by the next level down, so no unused-variable
+    // warnings are printed.
+    static String generate(int depth, int width)
+    {
+        StringBuilder source = new StringBuilder();
+        source.append("define root()\n{\n");
+        for (int level = 0; level < depth; level++)
+        {
+            for (int i = 0; i < width; i++)
+            {
+                source.append("var l").append(level).append('_').append(i).append(" = ");
+                if (level == 0)
+                {
+                    source.append(i);
+                }
+                else
+                {
+                    source.append("l").append(level - 1).append('_').append(i)
+                          .append(" + l0_").append(i);
+                }
+                source.append(";\n");
+            }
+            source.append("{\n");
+        }
+        for (int i = 0; i < width; i++)
+        {
+            source.append("print(l").append(depth - 1).append('_').append(i).append(");\n");
+        }
+        for (int level = 0; level < depth; level++)
+        {
+            source.append("}\n");
+        }
+        source.append("}\n");
+
+        return source.toString();
+    }
+}
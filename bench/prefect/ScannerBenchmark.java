@@ -0,0 +1,54 @@
+package prefect;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/*
+ Scan time over the same generated source as ParserBenchmark. Tokens are
+ pulled with nextToken and dropped, so the numbers measure the scanner
+ itself rather than the garbage collector copying a token list. Run with:
+
+     java -jar bench/target/benchmarks.jar ScannerBenchmark -p megabytes=4
+*/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScannerBenchmark {
+    @Param({"4"})
+    public int megabytes;
+
+    private String source;
+
+    @Setup
+    public void setup()
+    {
+        source = ParserBenchmark.generate(megabytes * 1024 * 1024);
+    }
+
+    @Benchmark
+    public int scan()
+    {
+        Scanner scanner = new Scanner(source);
+        int count = 1;
+        while (scanner.nextToken().type != TokenType.EOF)
+        {
+            count++;
+        }
+
+        return count;
+    }
+}
@@ -0,0 +1,123 @@
+package prefect;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+// What bench(fn, iterations) runs: a round of warmup calls so the JIT has
+// compiled the function's path through the interpreter, then a measured
+// round timing every call on its own. The report is printed, and returned
+// as a dictionary of nanoseconds (and bytes) so scripts can compare runs.
+//
+// The mean, min and max cover every call. Past SAMPLES calls the
+// percentiles come from a uniform sample of SAMPLES of the times, so a long
+// run doesn't need memory for each of them.
+class Bench {
+    private Bench() {}
+
+    private static final int SAMPLES = 1 << 16;
+
+    private static final com.sun.management.ThreadMXBean threads = threads();
+
+    private static com.sun.management.ThreadMXBean threads()
+    {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean)
+        {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)bean;
+            if (threads.isThreadAllocatedMemorySupported())
+            {
+                threads.setThreadAllocatedMemoryEnabled(true);
+                return threads;
+            }
+        }
+
+        return null;
+    }
+
+    // Bytes allocated so far by the current thread, or -1 if the JVM can't
+    // tell.
+    static long allocatedBytes()
+    {
+        if (threads == null)
+            return -1;
+
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    static Map<Object, Object> run(Interpreter interpreter, PrefectCallable function, double count)
+    {
+        if (function.arity() != 0)
+            throw new RuntimeError(null, "Expected a function of 0 arguments but got one of " + function.arity() + ".");
+        // Written so that NaN fails it too.
+        if (!(count >= 1 && count <= Integer.MAX_VALUE - 8 && count == Math.floor(count)))
+            throw new RuntimeError(null, "Iterations must be a whole number between 1 and " + (Integer.MAX_VALUE - 8) + ".");
+
+        int iterations = (int)count;
+        List<Object> none = Arrays.asList();
+
+        for (int i = 0; i < iterations; i++)
+        {
+            interpreter.step();
+            function.call(interpreter, none);
+        }
+
+        long[] times = new long[Math.min(iterations, SAMPLES)];
+        SplittableRandom random = new SplittableRandom();
+        long total = 0;
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long allocated = allocatedBytes();
+        for (int i = 0; i < iterations; i++)
+        {
+            interpreter.step();
+            long start = System.nanoTime();
+            function.call(interpreter, none);
+            long time = System.nanoTime() - start;
+
+            total += time;
+            min = Math.min(min, time);
+            max = Math.max(max, time);
+            // Each of the first i + 1 times ends up sampled with the same
+            // chance.
+            if (i < times.length)
+                times[i] = time;
+            else
+            {
+                int slot = random.nextInt(i + 1);
+                if (slot < times.length)
+                    times[slot] = time;
+            }
+        }
+        long after = allocatedBytes();
+
+        Arrays.sort(times);
+
+        Map<Object, Object> report = new HashMap<>();
+        report.put("iterations", (long)iterations);
+        report.put("mean", (double)total / iterations);
+        report.put("min", min);
+        report.put("p50", percentile(times, 0.50));
+        report.put("p90", percentile(times, 0.90));
+        report.put("p99", percentile(times, 0.99));
+        report.put("max", max);
+        report.put("bytes", allocated < 0 ? -1.0 : (double)(after - allocated) / iterations);
+
+        interpreter.output.println(String.format("bench %s: %d calls, mean %.1f ns, p50 %d ns, p90 %d ns, p99 %d ns, max %d ns, %s",
+                function, iterations, (double)total / iterations,
+                percentile(times, 0.50), percentile(times, 0.90), percentile(times, 0.99), max,
+                allocated < 0 ? "allocation unknown" : String.format("%.1f bytes/call", (double)(after - allocated) / iterations)));
+
+        return report;
+    }
+
+    // Nearest rank over sorted times.
+    private static long percentile(long[] sorted, double fraction)
+    {
+        int rank = (int)Math.ceil(fraction * sorted.length);
+        return sorted[Math.max(rank, 1) - 1];
+    }
+}
@@ -0,0 +1,81 @@
+package prefect;
+
+// What --max-steps and --timeout turn on, for running scripts that can't be
+// trusted to finish. A step is one pass round a loop, one call of a Prefect
+// function, or one item or callback in a native that loops: the sequence
+// stages and reduce, sortBy and bench. Those are the only places a run can
+// go on without end, so counting them bounds it while keeping the checks off
+// the per-statement path.
+//
+// The clock is only read every CLOCK_INTERVAL steps. cancel() may be called
+// from any thread, and the running script stops at its next step; a cancel
+// that comes between runs stops the next one at its first step instead.
+class Budget {
+    private static final int CLOCK_INTERVAL = 1024;
+    // The longest timeout that still fits in nanoseconds.
+    static final long MAX_TIMEOUT = Long.MAX_VALUE / 1_000_000;
+
+    private final long maxSteps;
+    private final long timeout;
+    private long steps;
+    private long deadline;
+    private int untilClock;
+    private volatile boolean cancelled;
+
+    // Zero for either means no limit.
+    Budget(long maxSteps, long timeoutMillis)
+    {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.timeout = Math.multiplyExact(timeoutMillis, 1_000_000L);
+        start();
+    }
+
+    // Gives a new run the whole budget again. A pending cancel is kept.
+    void start()
+    {
+        steps = 0;
+        deadline = System.nanoTime() + timeout;
+        untilClock = CLOCK_INTERVAL;
+    }
+
+    void cancel()
+    {
+        cancelled = true;
+    }
+
+    void step(int line)
+    {
+        String exceeded = exceeded();
+        if (exceeded != null)
+            throw new RuntimeError(new Token(TokenType.EOF, "", null, line), exceeded);
+    }
+
+    // For natives, which have no line; visitCallExpr gives the error the
+    // line of their call.
+    void step()
+    {
+        String exceeded = exceeded();
+        if (exceeded != null)
+            throw new RuntimeError(null, exceeded);
+    }
+
+    private String exceeded()
+    {
+        if (++steps > maxSteps)
+            return "Exceeded the limit of " + maxSteps + " steps.";
+        if (cancelled)
+        {
+            // Stops this run only.
+            cancelled = false;
+            return "Execution was cancelled.";
+        }
+        if (--untilClock == 0)
+        {
+            untilClock = CLOCK_INTERVAL;
+            if (timeout > 0 && System.nanoTime() - deadline > 0)
+                return "Exceeded the time limit of " + timeout / 1_000_000 + " ms.";
+        }
+
+        return null;
+    }
+}
@@ -0,0 +1,192 @@
+package prefect;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Natives working directly on the Map behind a dictionary. Dictionaries
+// used as arrays hold their elements at indices 0, 1, ... n - 1, and that
+// prefix is what sort and sortBy reorder; any other keys are left alone.
+class Dictionaries {
+    private Dictionaries() {}
+
+    static Map<Object, Object> keys(Map<Object, Object> dictionary)
+    {
+        return indexed(dictionary.keySet().toArray());
+    }
+
+    static Map<Object, Object> values(Map<Object, Object> dictionary)
+    {
+        return indexed(dictionary.values().toArray());
+    }
+
+    static Map<Object, Object> sort(Map<Object, Object> dictionary)
+    {
+        Object[] elements = elements(dictionary);
+
+        if (allIntegers(elements))
+        {
+            // Sorted unboxed, then boxed again on the way back.
+            long[] numbers = new long[elements.length];
+            for (int i = 0; i < numbers.length; i++)
+                numbers[i] = (long)elements[i];
+
+            Arrays.parallelSort(numbers);
+
+            for (int i = 0; i < numbers.length; i++)
+                dictionary.put((long)i, numbers[i]);
+        }
+        else if (allNumbers(elements))
+        {
+            double[] numbers = new double[elements.length];
+            for (int i = 0; i < numbers.length; i++)
+                numbers[i] = Numbers.toDouble(elements[i]);
+
+            Arrays.parallelSort(numbers);
+
+            for (int i = 0; i < numbers.length; i++)
+                dictionary.put((long)i, Numbers.of(numbers[i]));
+        }
+        else if (allStrings(elements))
+        {
+            String[] strings = Arrays.copyOf(elements, elements.length, String[].class);
+            Arrays.parallelSort(strings);
+            store(dictionary, strings);
+        }
+        else
+        {
+            throw new RuntimeError(null, "Can only sort numbers or strings.");
+        }
+
+        return dictionary;
+    }
+
+    // With a function of one argument, elements are ordered by the number or
+    // string it returns for them, calling it once per element. A function of
+    // two arguments is used as a comparator returning a number.
+    static Map<Object, Object> sortBy(Interpreter interpreter, Map<Object, Object> dictionary, PrefectCallable function)
+    {
+        Object[] elements = elements(dictionary);
+
+        if (function.arity() == 2)
+        {
+            Object[] pair = new Object[2];
+            List<Object> arguments = Arrays.asList(pair);
+            try {
+                Arrays.sort(elements, (a, b) -> {
+                    interpreter.step();
+                    pair[0] = a;
+                    pair[1] = b;
+                    return (int)Math.signum(Interpreter.number(function.call(interpreter, arguments)));
+                });
+            } catch (IllegalArgumentException exception) {
+                throw new RuntimeError(null, "Comparator isn't consistent.");
+            }
+
+            store(dictionary, elements);
+            return dictionary;
+        }
+
+        if (function.arity() != 1)
+            throw new RuntimeError(null, "Expected a function of 1 or 2 arguments.");
+
+        Object[] argument = new Object[1];
+        List<Object> arguments = Arrays.asList(argument);
+        Object[] keys = new Object[elements.length];
+        for (int i = 0; i < elements.length; i++)
+        {
+            interpreter.step();
+            argument[0] = elements[i];
+            keys[i] = Rope.flatten(function.call(interpreter, arguments));
+        }
+
+        Integer[] order = new Integer[elements.length];
+        for (int i = 0; i < order.length; i++)
+            order[i] = i;
+
+        if (allNumbers(keys))
+        {
+            double[] numbers = new double[keys.length];
+            for (int i = 0; i < numbers.length; i++)
+                numbers[i] = Numbers.toDouble(keys[i]);
+
+            Arrays.sort(order, (a, b) -> Double.compare(numbers[a], numbers[b]));
+        }
+        else if (allStrings(keys))
+        {
+            Arrays.sort(order, (a, b) -> ((String)keys[a]).compareTo((String)keys[b]));
+        }
+        else
+        {
+            throw new RuntimeError(null, "Sort keys must all be numbers or all be strings.");
+        }
+
+        Object[] sorted = new Object[elements.length];
+        for (int i = 0; i < sorted.length; i++)
+            sorted[i] = elements[order[i]];
+
+        store(dictionary, sorted);
+        return dictionary;
+    }
+
+    // The elements at indices 0 up to the first missing one.
+    private static Object[] elements(Map<Object, Object> dictionary)
+    {
+        int count = 0;
+        while (dictionary.containsKey((long)count))
+            count++;
+
+        Object[] elements = new Object[count];
+        for (int i = 0; i < count; i++)
+            elements[i] = dictionary.get((long)i);
+
+        return elements;
+    }
+
+    private static void store(Map<Object, Object> dictionary, Object[] elements)
+    {
+        for (int i = 0; i < elements.length; i++)
+            dictionary.put((long)i, elements[i]);
+    }
+
+    private static Map<Object, Object> indexed(Object[] elements)
+    {
+        Map<Object, Object> dictionary = new HashMap<>();
+        store(dictionary, elements);
+        return dictionary;
+    }
+
+    private static boolean allIntegers(Object[] elements)
+    {
+        for (Object element : elements)
+        {
+            if (!(element instanceof Long))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean allNumbers(Object[] elements)
+    {
+        for (Object element : elements)
+        {
+            if (!Numbers.isNumber(element))
+                return false;
+        }
+
+        return true;
+    }
+
+    private static boolean allStrings(Object[] elements)
+    {
+        for (Object element : elements)
+        {
+            if (!(element instanceof String))
+                return false;
+        }
+
+        return true;
+    }
+}
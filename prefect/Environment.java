@@ -87,18 +87,18 @@ public class Environment {
         throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
     }
 
-    void assignDictionary(Token name, Object index, Object value)
+    // The dictionary stores return the dictionary if index is a new key in
+    // it, and null otherwise.
+    Map<Object, Object> assignDictionary(Token name, Object index, Object value)
     {
         if (dictionaries.containsKey(name.lexeme))
         {
-            dictionaries.get(name.lexeme).put(index, value);
-            return;
+            return added(dictionaries.get(name.lexeme), index, value);
         }
 
         if (enclosing != null)
         {
-            enclosing.assignDictionary(name, index, value);
-            return;
+            return enclosing.assignDictionary(name, index, value);
         }
 
         throw new RuntimeError(name, "Undefined dictionary '" + name.lexeme + "'.");
@@ -118,17 +118,30 @@ public class Environment {
 
     }
 
+    // A dictionary takes over its name in this scope, even from a variable
+    // or a native defined here first; get() looks at values before
+    // dictionaries, so a native global like keys or set would hide it.
     void defineDictionary(String name, Map<Object, Object> map)
     {
+        values.remove(name);
         dictionaries.put(name, map);
     }
 
 
-    void defineDictionaryIndex(String name, Object index, Object value)
+    Map<Object, Object> defineDictionaryIndex(String name, Object index, Object value)
     {
         if(dictionaries.get(name) == null)
-            dictionaries.put(name, new HashMap<>());
-        dictionaries.get(name).put(index, value);
+            defineDictionary(name, new HashMap<>());
+        return added(dictionaries.get(name), index, value);
+    }
+
+    // Asks containsKey rather than checking what put returns, since a key
+    // can already be there holding nil.
+    private static Map<Object, Object> added(Map<Object, Object> dictionary, Object index, Object value)
+    {
+        boolean added = !dictionary.containsKey(index);
+        dictionary.put(index, value);
+        return added ? dictionary : null;
     }
 
     Environment ancestor(int distance)
@@ -164,6 +177,6 @@ public class Environment {
     {
         ancestor(distance).values.put(name.lexeme, value);
     }
-    void assignDictionaryAt(int distance, Token name, Object index, Object value) {
-        ancestor(distance).dictionaries.get(name.lexeme).put(index, value); }
+    Map<Object, Object> assignDictionaryAt(int distance, Token name, Object index, Object value) {
+        return added(ancestor(distance).dictionaries.get(name.lexeme), index, value); }
 }
@@ -0,0 +1,161 @@
+package prefect;
+
+import java.util.Map;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+// Flight Recorder events for what the interpreter does, so a recording shows
+// script activity next to GC and CPU data. Nothing here is touched before
+// Flight Recorder has started, since merely loading an event class costs a
+// few hundred milliseconds of startup; once it has, events the recording
+// doesn't enable are dropped by the JIT along with their objects.
+class Events {
+    private Events() {}
+
+    // A volatile read; recordings started later with jcmd are noticed too.
+    static boolean recording()
+    {
+        return FlightRecorder.isInitialized();
+    }
+
+    @Name("prefect.Compile")
+    @Label("Compile Phase")
+    @Category("Prefect")
+    @Description("Scanning, parsing or resolving a script, or all three for one statement when fused.")
+    @StackTrace(false)
+    static class Compile extends Event
+    {
+        @Label("Phase")
+        String phase;
+
+        @Label("Items")
+        @Description("Tokens scanned, or top level statements parsed or resolved.")
+        int items;
+    }
+
+    @Name("prefect.FunctionCall")
+    @Label("Function Call")
+    @Category("Prefect")
+    @Description("A call to a script function that took at least the threshold.")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static class FunctionCall extends Event
+    {
+        @Label("Function")
+        String function;
+
+        @Label("Line")
+        int line;
+
+        void finish(Token name)
+        {
+            end();
+            if (shouldCommit())
+            {
+                this.function = name.lexeme;
+                this.line = name.line;
+                commit();
+            }
+        }
+    }
+
+    @Name("prefect.DictionaryResize")
+    @Label("Dictionary Resize")
+    @Category("Prefect")
+    @Description("A dictionary outgrew its table, which HashMap then doubled and rehashed.")
+    @StackTrace(false)
+    static class DictionaryResize extends Event
+    {
+        @Label("Dictionary")
+        String dictionary;
+
+        @Label("Line")
+        int line;
+
+        @Label("Size")
+        int size;
+
+        @Label("Capacity")
+        @Description("Table capacity after the resize.")
+        int capacity;
+    }
+
+    @Name("prefect.RuntimeError")
+    @Label("Runtime Error")
+    @Category("Prefect")
+    @StackTrace(false)
+    static class RuntimeError extends Event
+    {
+        @Label("Message")
+        String message;
+
+        @Label("Line")
+        int line;
+    }
+
+    // A started Compile event, or null when nothing is recording.
+    static Compile compiling()
+    {
+        if (!recording())
+            return null;
+
+        Compile event = new Compile();
+        event.begin();
+        return event;
+    }
+
+    static void compiled(Compile event, String phase, int items)
+    {
+        if (event == null)
+            return;
+
+        event.end();
+        if (event.shouldCommit())
+        {
+            event.phase = phase;
+            event.items = items;
+            event.commit();
+        }
+    }
+
+    // Called with a dictionary a key was just added to. A HashMap with the
+    // default capacity and load factor doubles its table when its size goes
+    // past 12, 24, 48 and so on, three quarters of the old capacity.
+    static void added(Map<Object, Object> dictionary, Token name)
+    {
+        int before = dictionary.size() - 1;
+        if (!recording() || before < 12 || before % 3 != 0 || Integer.bitCount(before / 3) != 1)
+            return;
+
+        DictionaryResize event = new DictionaryResize();
+        if (event.isEnabled())
+        {
+            event.dictionary = name.lexeme;
+            event.line = name.line;
+            event.size = dictionary.size();
+            event.capacity = before / 3 * 8;
+            event.commit();
+        }
+    }
+
+    static void runtimeError(prefect.RuntimeError error)
+    {
+        if (!recording())
+            return;
+
+        RuntimeError event = new RuntimeError();
+        if (event.isEnabled())
+        {
+            event.message = error.getMessage();
+            event.line = error.token == null ? 0 : error.token.line;
+            event.commit();
+        }
+    }
+}
@@ -21,6 +21,10 @@ abstract class Expr {
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // Scope distance set by the Resolver for local variable accesses. Stays
+    // -1 for globals, which are looked up by name.
+    int depth = -1;
+
     static class Ternary extends Expr
     {
         Ternary(Expr condition, Expr left, Expr right)
@@ -79,8 +83,9 @@ abstract class Expr {
 
     static class Lambda extends Expr
     {
-        Lambda(List<Token> params, List<Stmt> body)
+        Lambda(Token keyword, List<Token> params, List<Stmt> body)
         {
+            this.keyword = keyword;
             this.params = params;
             this.body = body;
         }
@@ -90,8 +95,10 @@ abstract class Expr {
             return visitor.visitLambdaExpr(this);
         }
 
+        final Token keyword;
         final List<Token> params;
         final List<Stmt> body;
+        boolean generator = false;
     }
 
     static class Grouping extends Expr
@@ -0,0 +1,183 @@
+package prefect;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+// What calling a function that yields returns: a function giving the next
+// yielded value on every call, and nil once the body has finished.
+//
+// There is no thread behind it. The body runs as a state machine over its
+// statement tree: blocks, ifs and loops that contain a yield are entered as
+// frames on an explicit stack, which is what survives between calls, while
+// every other statement runs straight through the interpreter.
+class Generator implements PrefectCallable {
+    private static final Object NONE = new Object();
+
+    private static class Frame
+    {
+        Frame(Environment environment)
+        {
+            this.environment = environment;
+        }
+
+        final Environment environment;
+    }
+
+    private static class Block extends Frame
+    {
+        Block(List<Stmt> statements, Environment environment)
+        {
+            super(environment);
+            this.statements = statements;
+        }
+
+        final List<Stmt> statements;
+        int next = 0;
+    }
+
+    private static class Loop extends Frame
+    {
+        Loop(Stmt.While loop, Environment environment)
+        {
+            super(environment);
+            this.loop = loop;
+        }
+
+        final Stmt.While loop;
+    }
+
+    private final Stmt.Function declaration;
+    private final Deque<Frame> frames = new ArrayDeque<>();
+
+    Generator(Stmt.Function declaration, Environment environment)
+    {
+        this.declaration = declaration;
+        frames.push(new Block(declaration.body, environment));
+    }
+
+    @Override
+    public int arity()
+    {
+        return 0;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments)
+    {
+        try {
+            return resume(interpreter);
+        } catch (RuntimeException exception) {
+            frames.clear();
+            throw exception;
+        }
+    }
+
+    private Object resume(Interpreter interpreter)
+    {
+        while (!frames.isEmpty())
+        {
+            Frame frame = frames.peek();
+            Object value;
+
+            if (frame instanceof Loop)
+            {
+                Stmt.While loop = ((Loop)frame).loop;
+                if (!interpreter.isTrue(interpreter.evaluate(loop.condition, frame.environment)))
+                {
+                    frames.pop();
+                    continue;
+                }
+
+                if (interpreter.budget != null)
+                    interpreter.budget.step(loop.line);
+                value = step(interpreter, loop.body, frame.environment);
+            }
+            else
+            {
+                Block block = (Block)frame;
+                if (block.next == block.statements.size())
+                {
+                    frames.pop();
+                    continue;
+                }
+
+                value = step(interpreter, block.statements.get(block.next++), frame.environment);
+            }
+
+            if (value != NONE)
+                return value;
+        }
+
+        return null;
+    }
+
+    // Runs or enters one statement. Returns the yielded value, or NONE.
+    private Object step(Interpreter interpreter, Stmt stmt, Environment environment)
+    {
+        if (!stmt.yields)
+        {
+            try {
+                interpreter.execute(stmt, environment);
+            } catch (Break breakPoint) {
+                unwind(breakPoint, true);
+            } catch (Continue continuePoint) {
+                unwind(continuePoint, false);
+            } catch (Return returnValue) {
+                // A return ends the generator; its value isn't yielded.
+                frames.clear();
+            }
+            return NONE;
+        }
+
+        if (stmt instanceof Stmt.Yield)
+        {
+            Expr value = ((Stmt.Yield)stmt).value;
+            return value == null ? null : interpreter.evaluate(value, environment);
+        }
+
+        if (stmt instanceof Stmt.Block)
+        {
+            interpreter.countEnvironment();
+            frames.push(new Block(((Stmt.Block)stmt).statements, new Environment(environment)));
+        }
+        else if (stmt instanceof Stmt.While)
+        {
+            frames.push(new Loop((Stmt.While)stmt, environment));
+        }
+        else if (stmt instanceof Stmt.If)
+        {
+            Stmt.If branch = (Stmt.If)stmt;
+            if (interpreter.isTrue(interpreter.evaluate(branch.condition, environment)))
+                return step(interpreter, branch.thenBranch, environment);
+            if (branch.elseBranch != null)
+                return step(interpreter, branch.elseBranch, environment);
+        }
+
+        return NONE;
+    }
+
+    // Pops the frames inside the innermost loop, and the loop itself for a
+    // break, the same way visitWhileStmt catches them.
+    private void unwind(RuntimeException jump, boolean exitLoop)
+    {
+        while (!frames.isEmpty())
+        {
+            if (frames.peek() instanceof Loop)
+            {
+                if (exitLoop)
+                    frames.pop();
+                return;
+            }
+            frames.pop();
+        }
+
+        throw jump;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<generator " + declaration.name.lexeme + ">";
+    }
+}
@@ -0,0 +1,147 @@
+package prefect;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+// Standard input shared by all the reading natives. Bytes are pulled into one
+// buffer that lives as long as the interpreter, so nothing read ahead is lost
+// between calls, and whole lines or words are cut straight out of it.
+public class Input {
+    private static final int CAPACITY = 64 * 1024;
+
+    private final InputStream in;
+    private final Charset charset;
+    private final byte[] buffer = new byte[CAPACITY];
+    private int position = 0;
+    private int limit = 0;
+    // Flushed before waiting on the stream, so a question printed just
+    // before reading the answer is on the screen. See flushing.
+    private Output output = null;
+
+    Input(InputStream in)
+    {
+        this.in = in;
+        this.charset = Charset.defaultCharset();
+    }
+
+    void flushing(Output output)
+    {
+        this.output = output;
+    }
+
+    // Next line without its terminator, or null at the end of input.
+    String readLine() throws IOException
+    {
+        if (!fill())
+            return null;
+
+        ByteArrayOutputStream spill = null;
+        while (true)
+        {
+            int start = position;
+            while (position < limit && buffer[position] != '\n')
+                position++;
+
+            boolean found = position < limit;
+            if (spill == null && found)
+            {
+                String line = decode(buffer, start, position);
+                position++;
+                return line;
+            }
+
+            if (spill == null)
+                spill = new ByteArrayOutputStream();
+            spill.write(buffer, start, position - start);
+
+            if (found)
+            {
+                position++;
+                break;
+            }
+            if (!fill())
+                break;
+        }
+
+        byte[] bytes = spill.toByteArray();
+        return decode(bytes, 0, bytes.length);
+    }
+
+    // Next run of non-whitespace characters, or null at the end of input.
+    String readWord() throws IOException
+    {
+        while (true)
+        {
+            if (!fill())
+                return null;
+            if (!isSpace(buffer[position]))
+                break;
+            position++;
+        }
+
+        ByteArrayOutputStream spill = null;
+        while (true)
+        {
+            int start = position;
+            while (position < limit && !isSpace(buffer[position]))
+                position++;
+
+            if (spill == null && position < limit)
+                return decode(buffer, start, position);
+
+            if (spill == null)
+                spill = new ByteArrayOutputStream();
+            spill.write(buffer, start, position - start);
+
+            if (position < limit || !fill())
+                break;
+        }
+
+        byte[] bytes = spill.toByteArray();
+        return decode(bytes, 0, bytes.length);
+    }
+
+    // Everything up to the end of input.
+    String readAll() throws IOException
+    {
+        ByteArrayOutputStream all = new ByteArrayOutputStream();
+        while (fill())
+        {
+            all.write(buffer, position, limit - position);
+            position = limit;
+        }
+
+        return all.toString(charset);
+    }
+
+    // Makes sure there is at least one unread byte, false at the end of input.
+    private boolean fill() throws IOException
+    {
+        if (position < limit)
+            return true;
+
+        if (output != null)
+            output.flushPending();
+
+        int read = in.read(buffer, 0, buffer.length);
+        position = 0;
+        limit = Math.max(read, 0);
+
+        return read > 0;
+    }
+
+    private String decode(byte[] bytes, int start, int end)
+    {
+        if (end > start && bytes[end - 1] == '\r')
+            end--;
+
+        return new String(bytes, start, end - start, charset);
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f';
+    }
+}
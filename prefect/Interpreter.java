@@ -1,41 +1,794 @@
 package prefect;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.List;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
 import java.lang.Math;
 
 public class Interpreter implements Expr.Visitor<Object>,
         Stmt.Visitor<Void>{
     final Environment globals = new Environment();
     private Environment environment = globals;
-    private final Map<Expr, Integer> locals = new HashMap<>();
+    final Output output;
+    final Input input;
+    // Whether read() shows a '> ' prompt before waiting for a line.
+    boolean prompts = true;
+    // Set by --profile and --sample; null otherwise, which costs a check per
+    // call.
+    Profiler profiler = null;
+    Sampler sampler = null;
+    // Set by --lines, checked per statement.
+    LineProfiler lines = null;
+    // Set by --jmx, see setMetrics.
+    Metrics metrics = null;
+    // Set by --max-steps and --timeout, or by an embedder that wants to
+    // cancel; checked per loop pass and per call.
+    Budget budget = null;
+    // Set by --memory-quota, checked per new dictionary entry and per Rope.
+    Quota quota = null;
+    // Entries in the dictionaries scripts filled, for Metrics. Set with it.
+    Owners dictionaryEntries = null;
 
     Interpreter()
     {
+        this(new Output(System.out, Output.FlushPolicy.TIME), new Input(System.in));
+    }
+
+    Interpreter(Output output, Input input)
+    {
+        this.output = output;
+        this.input = input;
+        input.flushing(output);
+
         globals.define("clock", new PrefectCallable() {
             @Override
             public int arity() {
-                return 0;
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+
+            @Override
+            public String toString()
+            {
+                return "<native fn>";
+            }
+        });
+
+        // Nanoseconds from an arbitrary origin, only good for differences.
+        globals.define("nanoClock", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return System.nanoTime();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("bench", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Bench.run(interpreter, callable(arguments.get(0)), number(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        // Math library. Everything goes straight to java.lang.Math, so the
+        // JIT uses its intrinsics and results are the IEEE ones.
+        defineMath("sqrt", Math::sqrt);
+        defineMath("floor", Math::floor);
+        defineMath("ceil", Math::ceil);
+        defineMath("abs", Math::abs);
+        defineMath("exp", Math::exp);
+        defineMath("log", Math::log);
+        defineMath("log10", Math::log10);
+        defineMath("sin", Math::sin);
+        defineMath("cos", Math::cos);
+        defineMath("tan", Math::tan);
+        defineMath("asin", Math::asin);
+        defineMath("acos", Math::acos);
+        defineMath("atan", Math::atan);
+        defineMath("pow", Math::pow);
+        defineMath("atan2", Math::atan2);
+        defineMath("min", Math::min);
+        defineMath("max", Math::max);
+
+        globals.define("fma", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Math.fma(number(arguments.get(0)), number(arguments.get(1)), number(arguments.get(2)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("read", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    String line = (String)read();
+                    if (line == null)
+                        return null;
+
+                    return parseInput(line);
+                }catch(IOException exception) {
+                    return null;
+                }
+            }
+        });
+
+        globals.define("readLine", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    return input.readLine();
+                } catch (IOException exception) {
+                    return null;
+                }
+            }
+        });
+
+        globals.define("readAll", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    String all = input.readAll();
+                    if (interpreter.quota != null)
+                        interpreter.quota.charge(null, all, Quota.stringBytes(all));
+                    return all;
+                } catch (IOException exception) {
+                    return null;
+                }
+            }
+        });
+
+        // Reads up to n whitespace separated values into a dictionary indexed
+        // from 0, converted like read() does. Stops early at the end of input.
+        globals.define("readNumbers", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                double n = number(arguments.get(0));
+                Map<Object, Object> numbers = new HashMap<>();
+                try {
+                    for (int i = 0; i < n; i++)
+                    {
+                        String word = input.readWord();
+                        if (word == null)
+                            break;
+
+                        numbers.put((long)i, parseInput(word));
+                    }
+                } catch (IOException exception) {
+                    // Keep what was read so far.
+                }
+
+                if (interpreter.quota != null)
+                    interpreter.quota.charge(null, numbers, Quota.dictionaryBytes(numbers));
+
+                return numbers;
+            }
+        });
+
+        globals.define("readFile", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    String text = MappedLines.readAll(Paths.get(stringify(arguments.get(0))));
+                    if (interpreter.quota != null)
+                        interpreter.quota.charge(null, text, Quota.stringBytes(text));
+                    return text;
+                } catch (IOException exception) {
+                    return null;
+                }
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("lines", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    return new MappedLines(Paths.get(stringify(arguments.get(0))));
+                } catch (IOException exception) {
+                    return null;
+                }
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("writeFile", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                try {
+                    Files.write(Paths.get(stringify(arguments.get(0))),
+                            stringify(arguments.get(1)).getBytes(Charset.defaultCharset()));
+                    return true;
+                } catch (IOException exception) {
+                    return false;
+                }
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("range", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Sequence.range(number(arguments.get(0)), number(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("map", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Sequence.of(arguments.get(0)).map(callable(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("filter", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Sequence.of(arguments.get(0)).filter(callable(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("take", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Sequence.of(arguments.get(0)).take(number(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("reduce", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Sequence.of(arguments.get(0)).reduce(interpreter, callable(arguments.get(1)), arguments.get(2));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("len", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object value = arguments.get(0);
+                if (value instanceof String)
+                    return (long)((String)value).length();
+                if (value instanceof PrefectHeap)
+                    return (long)((PrefectHeap)value).size();
+                if (value instanceof PrefectDeque)
+                    return (long)((PrefectDeque)value).size();
+                if (value instanceof PrefectSet)
+                    return (long)((PrefectSet)value).elements.size();
+                if (value instanceof PrefectSortedMap)
+                    return (long)((PrefectSortedMap)value).entries.size();
+
+                return (long)dictionary(value).size();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("keys", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return charged(interpreter, Dictionaries.keys(dictionary(arguments.get(0))));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("values", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return charged(interpreter, Dictionaries.values(dictionary(arguments.get(0))));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("sort", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Dictionaries.sort(dictionary(arguments.get(0)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("sortBy", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return Dictionaries.sortBy(interpreter, dictionary(arguments.get(0)), callable(arguments.get(1)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        // Data structures. Natives taking the structure first stand in for
+        // methods, since the language has no member access.
+        globals.define("heap", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new PrefectHeap();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("deque", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new PrefectDeque();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("set", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new PrefectSet();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("sortedMap", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return new PrefectSortedMap();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("push", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                Object value = arguments.get(1);
+                long bytes;
+                if (target instanceof PrefectHeap)
+                {
+                    ((PrefectHeap)target).push(number(value));
+                    bytes = Double.BYTES;
+                }
+                else if (target instanceof PrefectDeque)
+                {
+                    ((PrefectDeque)target).pushBack(value);
+                    bytes = Quota.elementBytes(value);
+                }
+                else
+                {
+                    throw new RuntimeError(null, "Can only push onto a heap or a deque.");
+                }
+
+                if (interpreter.quota != null)
+                    interpreter.quota.charge(null, target, bytes);
+                return null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("pop", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                if (target instanceof PrefectHeap)
+                {
+                    PrefectHeap heap = (PrefectHeap)target;
+                    if (heap.size() == 0)
+                        return null;
+
+                    if (interpreter.quota != null)
+                        interpreter.quota.credit(heap, Double.BYTES);
+                    return Numbers.of(heap.pop());
+                }
+                if (target instanceof PrefectDeque)
+                    return popped(interpreter, (PrefectDeque)target, false);
+
+                throw new RuntimeError(null, "Can only pop from a heap or a deque.");
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("peek", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                if (target instanceof PrefectHeap)
+                {
+                    PrefectHeap heap = (PrefectHeap)target;
+                    return heap.size() == 0 ? null : Numbers.of(heap.peek());
+                }
+                if (target instanceof PrefectDeque)
+                    return ((PrefectDeque)target).peekBack();
+
+                throw new RuntimeError(null, "Can only peek at a heap or a deque.");
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("pushFront", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                PrefectDeque deque = deque(arguments.get(0));
+                deque.pushFront(arguments.get(1));
+                if (interpreter.quota != null)
+                    interpreter.quota.charge(null, deque, Quota.elementBytes(arguments.get(1)));
+                return null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("popFront", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return popped(interpreter, deque(arguments.get(0)), true);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("peekFront", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return deque(arguments.get(0)).peekFront();
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("add", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                if (!(target instanceof PrefectSet))
+                    throw new RuntimeError(null, "Can only add to a set.");
+
+                boolean added = ((PrefectSet)target).elements.add(arguments.get(1));
+                if (added && interpreter.quota != null)
+                    interpreter.quota.charge(null, target, Quota.entryBytes(arguments.get(1), null));
+                return added;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("has", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                if (target instanceof PrefectSet)
+                    return ((PrefectSet)target).elements.contains(arguments.get(1));
+                if (target instanceof PrefectSortedMap)
+                    return ((PrefectSortedMap)target).entries.containsKey(arguments.get(1));
+
+                return dictionary(target).containsKey(arguments.get(1));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("remove", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                Object target = arguments.get(0);
+                Object key = arguments.get(1);
+                if (target instanceof PrefectSet)
+                {
+                    boolean removed = ((PrefectSet)target).elements.remove(key);
+                    if (removed && interpreter.quota != null)
+                        interpreter.quota.credit(target, Quota.entryBytes(key, null));
+                    return removed;
+                }
+                if (target instanceof PrefectSortedMap)
+                {
+                    Map<Object, Object> entries = ((PrefectSortedMap)target).entries;
+                    if (!entries.containsKey(key))
+                        return null;
+
+                    Object value = entries.remove(key);
+                    if (interpreter.quota != null)
+                        interpreter.quota.credit(target, Quota.entryBytes(key, value));
+                    return value;
+                }
+
+                Map<Object, Object> dictionary = dictionary(target);
+                if (!dictionary.containsKey(key))
+                    return null;
+
+                if (interpreter.metrics != null)
+                    interpreter.dictionaryEntries.add(dictionary, -1);
+                Object value = dictionary.remove(key);
+                if (interpreter.quota != null)
+                    interpreter.quota.credit(dictionary, Quota.entryBytes(key, value));
+                return value;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("put", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 3;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                PrefectSortedMap map = sortedMap(arguments.get(0));
+                Object key = arguments.get(1);
+                Object value = arguments.get(2);
+                boolean replacing = map.entries.containsKey(key);
+                Object previous = map.entries.put(key, value);
+
+                if (interpreter.quota != null)
+                {
+                    if (replacing)
+                        interpreter.quota.replaced(null, map, previous, value);
+                    else
+                        interpreter.quota.charge(null, map, Quota.entryBytes(key, value));
+                }
+                return null;
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("get", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return sortedMap(arguments.get(0)).entries.get(arguments.get(1));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+
+        globals.define("firstKey", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
             }
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                return (double)System.currentTimeMillis() / 1000.0;
+                PrefectSortedMap map = sortedMap(arguments.get(0));
+                return map.entries.isEmpty() ? null : map.entries.firstKey();
             }
 
             @Override
-            public String toString()
-            {
-                return "<native fn>";
-            }
+            public String toString() { return "<native fn>"; }
         });
 
-        globals.define("sqrt", new PrefectCallable() {
+        globals.define("lastKey", new PrefectCallable() {
             @Override
             public int arity() {
                 return 1;
@@ -43,46 +796,42 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                double x = (Double)arguments.get(0);
-                double aprox = 1.0;
-                int steps = 0;
-                while(Math.abs(aprox * aprox - x) > 0.001 && steps < 1000)
-                {
-                    aprox = 0.5 * (aprox + x / aprox);
-                    steps = steps + 1;
-                }
-
-                return aprox - aprox % 0.001;
+                PrefectSortedMap map = sortedMap(arguments.get(0));
+                return map.entries.isEmpty() ? null : map.entries.lastKey();
             }
 
             @Override
             public String toString() { return "<native fn>"; }
         });
 
-        globals.define("read", new PrefectCallable() {
+        globals.define("floorKey", new PrefectCallable() {
             @Override
             public int arity() {
-                return 0;
+                return 2;
             }
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                try {
+                return sortedMap(arguments.get(0)).entries.floorKey(arguments.get(1));
+            }
 
-                    String input = (String)read();
-                    try{
-                        return Double.parseDouble(input);
-                    } catch(NumberFormatException exception)
-                    {
-                        if(input.equals("false"))
-                            return false;
-                        return input;
-                    }
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
 
-                }catch(IOException exception) {
-                    return null;
-                }
+        globals.define("ceilingKey", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return sortedMap(arguments.get(0)).entries.ceilingKey(arguments.get(1));
             }
+
+            @Override
+            public String toString() { return "<native fn>"; }
         });
 
         globals.define("print", new PrefectCallable() {
@@ -93,7 +842,20 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                System.out.println(stringify(arguments.get(0)));
+                print(arguments.get(0));
+                return null;
+            }
+        });
+
+        globals.define("flush", new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 0;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                output.flush();
                 return null;
             }
         });
@@ -106,26 +868,205 @@ public class Interpreter implements Expr.Visitor<Object>,
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                return ((double)arguments.get(0) - (double)arguments.get(0) % 1.0);
+                // Truncates toward zero, like the x - x % 1 it replaces, but
+                // without the slow floating point remainder. Adding 0.0 turns
+                // the -0.0 from ceil into 0.
+                if (arguments.get(0) instanceof Long)
+                    return arguments.get(0);
+
+                double x = number(arguments.get(0));
+                return Numbers.of((x < 0 ? Math.ceil(x) : Math.floor(x)) + 0.0);
+            }
+        });
+    }
+
+    private void defineMath(String name, DoubleUnaryOperator function)
+    {
+        globals.define(name, new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return function.applyAsDouble(number(arguments.get(0)));
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    private void defineMath(String name, DoubleBinaryOperator function)
+    {
+        globals.define(name, new PrefectCallable() {
+            @Override
+            public int arity() {
+                return 2;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return function.applyAsDouble(number(arguments.get(0)), number(arguments.get(1)));
             }
+
+            @Override
+            public String toString() { return "<native fn>"; }
         });
     }
 
     Object read() throws IOException
     {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
-        System.out.print("> ");
-        return reader.readLine();
+        if (prompts)
+        {
+            output.print("> ");
+            output.flush();
+        }
+        return input.readLine();
+    }
+
+    // Argument checks for natives. The error gets the line of the call in
+    // visitCallExpr.
+    static double number(Object value)
+    {
+        if (value instanceof Long)
+            return (long)value;
+        if (value instanceof Double)
+            return (double)value;
+
+        throw new RuntimeError(null, "Expected a number but got " + (value == null ? "nil" : value.toString()) + ".");
+    }
+
+    @SuppressWarnings("unchecked")
+    static Map<Object, Object> dictionary(Object value)
+    {
+        if (value instanceof Map<?, ?>)
+            return (Map<Object, Object>)value;
+
+        throw new RuntimeError(null, "Expected a dictionary.");
+    }
+
+    static PrefectDeque deque(Object value)
+    {
+        if (value instanceof PrefectDeque)
+            return (PrefectDeque)value;
+
+        throw new RuntimeError(null, "Expected a deque.");
+    }
+
+    // A dictionary a native made, charged to --memory-quota when it's on.
+    private static Map<Object, Object> charged(Interpreter interpreter, Map<Object, Object> dictionary)
+    {
+        if (interpreter.quota != null)
+            interpreter.quota.charge(null, dictionary, Quota.dictionaryBytes(dictionary));
+        return dictionary;
+    }
+
+    private static Object popped(Interpreter interpreter, PrefectDeque deque, boolean front)
+    {
+        boolean empty = deque.size() == 0;
+        Object value = front ? deque.popFront() : deque.popBack();
+        if (!empty && interpreter.quota != null)
+            interpreter.quota.credit(deque, Quota.elementBytes(value));
+        return value;
+    }
+
+    static PrefectSortedMap sortedMap(Object value)
+    {
+        if (value instanceof PrefectSortedMap)
+            return (PrefectSortedMap)value;
+
+        throw new RuntimeError(null, "Expected a sorted map.");
+    }
+
+    static PrefectCallable callable(Object value)
+    {
+        if (value instanceof PrefectCallable)
+            return (PrefectCallable)value;
+
+        throw new RuntimeError(null, "Expected a function.");
+    }
+
+    // A value as natives and dictionaries hold it: a Rope flattened, and a
+    // whole Double as the Long it equals, so that 1 and 1.0 are the same key.
+    static Object key(Object value)
+    {
+        if (value instanceof Double)
+            return Numbers.of((double)value);
+        if (value instanceof Rope)
+            return value.toString();
+
+        return value;
+    }
+
+    private static Object parseInput(String text)
+    {
+        try {
+            return Numbers.parse(text);
+        } catch (NumberFormatException exception) {
+            if (text.equals("false"))
+                return false;
+            return text;
+        }
+    }
+
+    void parseDeferred(Stmt.Function function)
+    {
+        if (!function.broken)
+        {
+            boolean hadError = Main.hadError;
+            Main.hadError = false;
+
+            List<Stmt> body = new Parser(function.tokens).parseDeferred(function);
+            if (!Main.hadError)
+            {
+                new Resolver(this).resolveDeferred(function, body);
+            }
+
+            // The errors were reported already; they shouldn't also count
+            // against whatever is being run now.
+            function.broken = Main.hadError;
+            function.tokens = null;
+            Main.hadError = hadError;
+
+            if (!function.broken)
+            {
+                function.body = body;
+                return;
+            }
+        }
+
+        throw new RuntimeError(function.name, "Function '" + function.name.lexeme + "' has errors in its body.");
+    }
+
+    // Runs a single top level statement, for front ends that hand statements
+    // over as soon as they're resolved. Returns false after a runtime error.
+    boolean interpret(Stmt statement)
+    {
+        if (metrics != null)
+            metrics.executions.increment();
+        try {
+            execute(statement);
+            return true;
+        } catch (RuntimeError error) {
+            Main.runtimeError(this, error);
+            return false;
+        } finally {
+            if (metrics != null)
+                metrics.executions.decrement();
+        }
     }
 
     void interpret(List<Stmt> statements) {
+        if (metrics != null)
+            metrics.executions.increment();
         try {
             if(statements.size() == 1 && statements.get(0) instanceof Stmt.Expression )
             {
                 Object out = evaluate(((Stmt.Expression) statements.get(0)).expression);
                 if(out != null)
-                    System.out.println(stringify(out));
+                    print(out);
             }
             else
             {
@@ -135,12 +1076,16 @@ public class Interpreter implements Expr.Visitor<Object>,
                 }
             }
         } catch (RuntimeError error) {
-            Main.runtimeError(error);
+            Main.runtimeError(this, error);
+        } finally {
+            if (metrics != null)
+                metrics.executions.decrement();
         }
     }
 
     @Override
     public Void visitBlockStmt(Stmt.Block stmt) {
+        countEnvironment();
         executeBlock(stmt.statements, new Environment(environment));
         return null;
     }
@@ -177,8 +1122,7 @@ public class Interpreter implements Expr.Visitor<Object>,
     @Override
     public Void visitPrintStmt(Stmt.Print stmt)
     {
-        Object value = evaluate(stmt.expression);
-        System.out.println(stringify(value));
+        print(evaluate(stmt.expression));
         return null;
     }
 
@@ -191,6 +1135,13 @@ public class Interpreter implements Expr.Visitor<Object>,
         throw new Return(value);
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt) {
+        // Generator steps into everything around a yield, so getting here
+        // means the statement wasn't marked by the Parser.
+        throw new RuntimeError(stmt.keyword, "Can't yield here.");
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         throw new Break();
@@ -227,6 +1178,8 @@ public class Interpreter implements Expr.Visitor<Object>,
     public Void visitWhileStmt(Stmt.While stmt) {
         while(isTrue(evaluate(stmt.condition)))
         {
+            if (budget != null)
+                budget.step(stmt.line);
             try {
                 execute(stmt.body);
             }
@@ -276,6 +1229,14 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitUnaryExpr(Expr.Unary expr)
+    {
+        Object value = unary(expr);
+        if (lines != null)
+            lines.number(value);
+        return value;
+    }
+
+    private Object unary(Expr.Unary expr)
     {
         Object right = evaluate(expr.right);
 
@@ -285,7 +1246,13 @@ public class Interpreter implements Expr.Visitor<Object>,
                 return !isTrue(right);
             case MINUS:
                 checkNumberOperand(expr.operator, right);
-                return -(double)right;
+                if (right instanceof Long)
+                {
+                    long value = (long)right;
+                    if (value != 0 && value != Long.MIN_VALUE)
+                        return -value;
+                }
+                return -Numbers.toDouble(right);
         }
 
         // Unreachable.
@@ -311,8 +1278,8 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     private Object lookUpVariable(Token name, Expr expr)
     {
-        Integer distance = locals.get(expr);
-        if (distance != null)
+        int distance = expr.depth;
+        if (distance >= 0)
         {
             return environment.getAt(distance, name.lexeme);
         }
@@ -324,10 +1291,10 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     private Object lookUpDictionary(Token name, Expr index, Expr expr)
     {
-        Integer distance = locals.get(expr);
-        Object indexValue = evaluate(index);
+        int distance = expr.depth;
+        Object indexValue = key(evaluate(index));
 
-        if (distance != null)
+        if (distance >= 0)
         {
             return environment.getDictionaryAt(distance, indexValue, name.lexeme);
         }
@@ -339,9 +1306,9 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     private Object lookUpDictionaryObject(Token name, Expr expr)
     {
-        Integer distance = locals.get(expr);
+        int distance = expr.depth;
 
-        if (distance != null)
+        if (distance >= 0)
         {
             return environment.getDictionaryObjectAt(distance, name.lexeme);
         }
@@ -356,8 +1323,8 @@ public class Interpreter implements Expr.Visitor<Object>,
     {
         Object value = evaluate(expr.value);
 
-        Integer distance = locals.get(expr);
-        if (distance != null)
+        int distance = expr.depth;
+        if (distance >= 0)
         {
             environment.assignAt(distance, expr.name, value);
         }
@@ -371,26 +1338,98 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitDictionaryAssignExpr(Expr.DictionaryAssign expr) {
-        Object value = evaluate(expr.value);
-        Object indexValue = evaluate(expr.index);
+        Object value = key(evaluate(expr.value));
+        Object indexValue = key(evaluate(expr.index));
+
+        int distance = expr.depth;
 
-        environment.defineDictionaryIndex(expr.name.lexeme, indexValue, value);
+        // What the store replaces, for --memory-quota; looked up before the
+        // stores below may make the dictionary.
+        Map<Object, Object> resolved = null;
+        Object previous = null;
+        if (quota != null)
+        {
+            Object found = distance >= 0 ? environment.getDictionaryObjectAt(distance, expr.name.lexeme)
+                    : globals.getDictionaryObjectAt(0, expr.name.lexeme);
+            if (found != null)
+            {
+                resolved = dictionary(found);
+                previous = resolved.get(indexValue);
+            }
+        }
 
-        Integer distance = locals.get(expr);
+        Map<Object, Object> local = environment.defineDictionaryIndex(expr.name.lexeme, indexValue, value);
+        Map<Object, Object> target;
 
-        if (distance != null)
+        if (distance >= 0)
         {
 
-            environment.assignDictionaryAt(distance, expr.name, indexValue, value);
+            target = environment.assignDictionaryAt(distance, expr.name, indexValue, value);
         }
         else
         {
-            globals.assignDictionary(expr.name, indexValue, value);
+            target = globals.assignDictionary(expr.name, indexValue, value);
+        }
+
+        if (local != null)
+            added(local, expr.name);
+        if (target != null && target != local)
+            added(target, expr.name);
+        if (metrics == null && quota == null)
+            return value;
+
+        // Only keys new to the dictionary the name resolves to. When that is
+        // in this environment the first store went to it, and the second
+        // found the key already there; otherwise the first went to a local
+        // one, which goes away with its block.
+        boolean here = distance == 0 || (distance < 0 && environment == globals);
+        Map<Object, Object> grown = target != null ? target : here ? local : null;
+
+        if (grown != null)
+        {
+            if (metrics != null)
+                dictionaryEntries.add(grown, 1);
+            if (quota != null)
+                quota.charge(expr.name, grown, Quota.entryBytes(indexValue, value));
+        }
+        else if (quota != null && resolved != null)
+        {
+            quota.replaced(expr.name, resolved, previous, value);
         }
 
         return value;
     }
 
+    private void added(Map<Object, Object> dictionary, Token name)
+    {
+        if (lines != null)
+            lines.entry();
+        Events.added(dictionary, name);
+    }
+
+    void setMetrics(Metrics metrics)
+    {
+        this.metrics = metrics;
+        this.dictionaryEntries = new Owners();
+        metrics.track(this);
+    }
+
+    // Called by natives once per item or callback in their own loops.
+    void step()
+    {
+        if (budget != null)
+            budget.step();
+    }
+
+    // Called wherever an Environment is made for a block or a call.
+    void countEnvironment()
+    {
+        if (lines != null)
+            lines.environment();
+        if (metrics != null)
+            metrics.environments.increment();
+    }
+
     @Override
     public Object visitTernaryExpr(Expr.Ternary expr) {
         Object condition = evaluate(expr.condition);
@@ -407,64 +1446,126 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     @Override
     public Object visitBinaryExpr(Expr.Binary expr)
+    {
+        Object value = binary(expr);
+        if (lines != null)
+            lines.number(value);
+        return value;
+    }
+
+    private Object binary(Expr.Binary expr)
     {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
+        if (left instanceof Long && right instanceof Long)
+        {
+            Object result = integerBinary(expr.operator.type, (long)left, (long)right);
+            if (result != null)
+                return result;
+        }
+
         switch(expr.operator.type)
         {
             case BANG_EQUAL: return !isEqual(left, right);
             case EQUAL_EQUAL: return isEqual(left, right);
             case GREATER:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left > (double)right;
+                return Numbers.toDouble(left) > Numbers.toDouble(right);
             case GREATER_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left >= (double)right;
+                return Numbers.toDouble(left) >= Numbers.toDouble(right);
             case LESS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left < (double)right;
+                return Numbers.toDouble(left) < Numbers.toDouble(right);
             case LESS_EQUAL:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left <= (double)right;
+                return Numbers.toDouble(left) <= Numbers.toDouble(right);
             case PLUS:
             {
-                if(left instanceof Double && right instanceof Double)
+                if(Numbers.isNumber(left) && Numbers.isNumber(right))
                 {
-                    return (double)left + (double)right;
+                    return Numbers.toDouble(left) + Numbers.toDouble(right);
                 }
 
-                if(left instanceof String && right instanceof String)
+                if(isText(left) && isText(right))
                 {
-                    return stringify(left) + stringify(right);
+                    return concatenate(left, right, expr.operator);
                 }
 
-                if((left instanceof String || right instanceof String) &&
-                        (left instanceof Double || right instanceof Double))
+                if((isText(left) || isText(right)) &&
+                        (Numbers.isNumber(left) || Numbers.isNumber(right)))
                 {
-                    return stringify(left) + stringify(right);
+                    return concatenate(left, right, expr.operator);
                 }
 
                 throw new RuntimeError(expr.operator, "Operands must be numbers or strings.");
             }
             case MINUS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left - (double)right;
+                return Numbers.toDouble(left) - Numbers.toDouble(right);
             case STAR:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left * (double)right;
+                return Numbers.toDouble(left) * Numbers.toDouble(right);
             case SLASH:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left / (double)right;
+                return Numbers.toDouble(left) / Numbers.toDouble(right);
             case MODULUS:
                 checkNumberOperand(expr.operator, left, right);
-                return (double)left % (double)right;
+                return Numbers.toDouble(left) % Numbers.toDouble(right);
         }
 
         // Unreachable.
         return null;
     }
 
+    // Both operands are integers. Returns null where the result isn't one,
+    // because it overflows, has a fraction or is -0, to have it done in
+    // floating point instead.
+    private static Object integerBinary(TokenType operator, long left, long right)
+    {
+        long result;
+        switch (operator)
+        {
+            case EQUAL_EQUAL: return left == right;
+            case BANG_EQUAL: return left != right;
+            case GREATER: return left > right;
+            case GREATER_EQUAL: return left >= right;
+            case LESS: return left < right;
+            case LESS_EQUAL: return left <= right;
+            case PLUS:
+                result = left + right;
+                if (((left ^ result) & (right ^ result)) < 0)
+                    return null;
+                return result;
+            case MINUS:
+                result = left - right;
+                if (((left ^ right) & (left ^ result)) < 0)
+                    return null;
+                return result;
+            case STAR:
+                result = left * right;
+                if (Math.multiplyHigh(left, right) != (result >> 63) ||
+                        (result == 0 && (left < 0 || right < 0)))
+                    return null;
+                return result;
+            case SLASH:
+                if (right == 0 || left % right != 0 || (left == 0 && right < 0) ||
+                        (left == Long.MIN_VALUE && right == -1))
+                    return null;
+                return left / right;
+            case MODULUS:
+                if (right == 0)
+                    return null;
+                result = left % right;
+                if (result == 0 && left < 0)
+                    return null;
+                return result;
+        }
+
+        return null;
+    }
+
     @Override
     public Object visitCallExpr(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
@@ -486,19 +1587,63 @@ public class Interpreter implements Expr.Visitor<Object>,
         {
             throw new RuntimeError(expr.paren, "Expected " + function.arity() + " arguments but got " + arguments.size() + ".");
         }
-        return function.call(this, arguments);
+
+        // Natives only know about plain strings, and get whole numbers as
+        // Longs so that sets and sorted maps match keys like dictionaries.
+        if (!(function instanceof PrefectFunction))
+        {
+            for (int i = 0; i < arguments.size(); i++)
+                arguments.set(i, key(arguments.get(i)));
+        }
+
+        try {
+            if (sampler != null)
+                sampler.line(expr.paren.line);
+
+            // Script functions report themselves, from wherever they're called.
+            if ((profiler != null || sampler != null) && !(function instanceof PrefectFunction))
+                return callProfiled(expr, function, arguments);
+
+            return function.call(this, arguments);
+        } catch (RuntimeError error) {
+            if (error.token != null)
+                throw error;
+
+            // Raised by a native, which has no token of its own.
+            throw new RuntimeError(expr.paren, error.getMessage());
+        }
+    }
+
+    private Object callProfiled(Expr.Call expr, PrefectCallable function, List<Object> arguments)
+    {
+        String name = expr.callee instanceof Expr.Variable ?
+                ((Expr.Variable)expr.callee).name.lexeme : function.toString();
+
+        if (profiler != null)
+            profiler.enter(function, name, 0);
+        if (sampler != null)
+            sampler.push(name, 0);
+        try {
+            return function.call(this, arguments);
+        } finally {
+            if (sampler != null)
+                sampler.pop();
+            if (profiler != null)
+                profiler.exit();
+        }
     }
 
     @Override
     public Object visitLambdaExpr(Expr.Lambda expr) {
-        Stmt.Function anonFunction = new Stmt.Function(new Token(TokenType.LAMBDA, "lambda", "", 0), expr.params, expr.body);
+        Stmt.Function anonFunction = new Stmt.Function(expr.keyword, expr.params, expr.body);
+        anonFunction.generator = expr.generator;
         PrefectFunction function = new PrefectFunction(anonFunction, environment);
         return function;
     }
 
     private void checkNumberOperand(Token operator, Object operand)
     {
-        if (operand instanceof Double)
+        if (Numbers.isNumber(operand))
             return;
 
         throw new RuntimeError(operator, "Operand must be a number.");
@@ -506,14 +1651,14 @@ public class Interpreter implements Expr.Visitor<Object>,
 
     private void checkNumberOperand(Token operator, Object leftOperand, Object rightOperand)
     {
-        if (leftOperand instanceof Double && rightOperand instanceof Double)
+        if (Numbers.isNumber(leftOperand) && Numbers.isNumber(rightOperand))
             return;
 
         throw new RuntimeError(operator, "Operands must both be numbers.");
 
     }
 
-    private boolean isTrue(Object object)
+    boolean isTrue(Object object)
     {
         if (object == null) return false;
         if (object instanceof Boolean) return (boolean)object;
@@ -521,13 +1666,53 @@ public class Interpreter implements Expr.Visitor<Object>,
         return true;
     }
 
+    private static boolean isText(Object object)
+    {
+        return object instanceof String || object instanceof Rope;
+    }
+
+    private Object concatenate(Object left, Object right, Token operator)
+    {
+        String tail = stringify(right);
+        if (left instanceof Rope)
+        {
+            Rope rope = (Rope)left;
+            if (quota == null)
+                return rope.append(tail);
+
+            // Only what the builder grew by, when the result shares it.
+            long before = rope.bytes();
+            Rope result = rope.append(tail);
+            quota.charge(operator, result.storage(),
+                    result.storage() == rope.storage() ? result.bytes() - before : result.bytes());
+            return result;
+        }
+
+        String head = stringify(left);
+        if (head.length() + tail.length() < Rope.THRESHOLD)
+            return head + tail;
+
+        Rope result = new Rope(head, tail);
+        if (quota != null)
+            quota.charge(operator, result.storage(), result.bytes());
+        return result;
+    }
+
     private boolean isEqual(Object a, Object b)
     {
+        a = Rope.flatten(a);
+        b = Rope.flatten(b);
+
         if (a == null && b == null)
             return true;
         if (a == null)
             return false;
 
+        // 1 and 1.0 are the same number.
+        if (a instanceof Long && b instanceof Double)
+            a = (double)(long)a;
+        else if (a instanceof Double && b instanceof Long)
+            b = (double)(long)b;
 
         //return a == b; So this follows IEE 754, even though it's weird
         // (0 / 0) == (0 / 0) meaning NaN == NaN, returns false according to IEE 754 ._.
@@ -541,18 +1726,21 @@ public class Interpreter implements Expr.Visitor<Object>,
             return "nil";
 
         if (object instanceof Double)
-        {
-            String text = object.toString();
-            if (text.endsWith(".0"))
-            {
-                text = text.substring(0, text.length() - 2);
-            }
-            return text;
-        }
+            return Numbers.format((double)object);
 
         return object.toString();
     }
 
+    private void print(Object value)
+    {
+        if (value instanceof Long)
+            output.println((long)value);
+        else if (value instanceof Double)
+            output.println((double)value);
+        else
+            output.println(stringify(value));
+    }
+
     void executeBlock(List<Stmt> statements, Environment environment)
     {
         Environment previous = this.environment;
@@ -575,13 +1763,53 @@ public class Interpreter implements Expr.Visitor<Object>,
         return expr.accept(this);
     }
 
+    // Used by Generator, which keeps the environments of a suspended body.
+    Object evaluate(Expr expr, Environment environment)
+    {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            return expr.accept(this);
+        } finally
+        {
+            this.environment = previous;
+        }
+    }
+
+    void execute(Stmt stmt, Environment environment)
+    {
+        Environment previous = this.environment;
+        try {
+            this.environment = environment;
+            execute(stmt);
+        } finally
+        {
+            this.environment = previous;
+        }
+    }
+
     private void execute(Stmt stmt)
     {
-        stmt.accept(this);
+        if (metrics != null)
+            metrics.statements.increment();
+        if (sampler != null)
+            sampler.line(stmt.line);
+        if (lines == null)
+        {
+            stmt.accept(this);
+            return;
+        }
+
+        lines.enter(stmt.line);
+        try {
+            stmt.accept(this);
+        } finally {
+            lines.exit();
+        }
     }
 
     void resolve(Expr expr, int depth)
     {
-        locals.put(expr, depth);
+        expr.depth = depth;
     }
 }
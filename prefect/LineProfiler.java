@@ -0,0 +1,125 @@
+package prefect;
+
+import java.io.PrintStream;
+import java.util.Arrays;
+
+// What --lines turns on: every executed statement is counted and timed
+// against the line it starts on, along with what it allocates, both in bytes
+// from the thread's allocation counter and as counts of the objects scripts
+// make most of: environments, new dictionary entries and boxed numbers out
+// of operators. Time and bytes are the statement's own, without the
+// statements nested in it or run by the functions it calls.
+class LineProfiler {
+    private long[] counts = new long[0];
+    private long[] times = new long[0];
+    private long[] bytes = new long[0];
+    private long[] environments = new long[0];
+    private long[] entries = new long[0];
+    private long[] numbers = new long[0];
+
+    // The statements being executed, innermost last.
+    private int[] lines = new int[16];
+    private long[] starts = new long[16];
+    private long[] children = new long[16];
+    private long[] allocated = new long[16];
+    private long[] childBytes = new long[16];
+    private int depth = 0;
+
+    void enter(int line)
+    {
+        if (line >= counts.length)
+            grow(line);
+        if (depth == lines.length)
+        {
+            lines = Arrays.copyOf(lines, depth * 2);
+            starts = Arrays.copyOf(starts, depth * 2);
+            children = Arrays.copyOf(children, depth * 2);
+            allocated = Arrays.copyOf(allocated, depth * 2);
+            childBytes = Arrays.copyOf(childBytes, depth * 2);
+        }
+
+        counts[line]++;
+        lines[depth] = line;
+        children[depth] = 0;
+        childBytes[depth] = 0;
+        allocated[depth] = Bench.allocatedBytes();
+        starts[depth] = System.nanoTime();
+        depth++;
+    }
+
+    void exit()
+    {
+        long end = System.nanoTime();
+        long after = Bench.allocatedBytes();
+
+        depth--;
+        int line = lines[depth];
+        long elapsed = end - starts[depth];
+        long made = after - allocated[depth];
+        times[line] += elapsed - children[depth];
+        bytes[line] += made - childBytes[depth];
+
+        if (depth > 0)
+        {
+            children[depth - 1] += elapsed;
+            childBytes[depth - 1] += made;
+        }
+    }
+
+    void environment()
+    {
+        if (depth > 0)
+            environments[lines[depth - 1]]++;
+    }
+
+    void entry()
+    {
+        if (depth > 0)
+            entries[lines[depth - 1]]++;
+    }
+
+    // Counts value if it is a number that had to be boxed, which small Longs
+    // don't.
+    void number(Object value)
+    {
+        if (depth == 0)
+            return;
+
+        if (value instanceof Double || (value instanceof Long && ((long)value < -128 || (long)value > 127)))
+            numbers[lines[depth - 1]]++;
+    }
+
+    private void grow(int line)
+    {
+        int length = Math.max(line + 1, counts.length * 2);
+        counts = Arrays.copyOf(counts, length);
+        times = Arrays.copyOf(times, length);
+        bytes = Arrays.copyOf(bytes, length);
+        environments = Arrays.copyOf(environments, length);
+        entries = Arrays.copyOf(entries, length);
+        numbers = Arrays.copyOf(numbers, length);
+    }
+
+    // The source with the figures for each line in front of it. Lines that
+    // never ran get blank columns.
+    void report(String source, PrintStream out)
+    {
+        out.printf("%10s %10s %10s %8s %8s %10s  %s%n", "count", "self ms", "self KB", "envs", "entries", "numbers", "line");
+
+        String[] text = source.split("\r?\n", -1);
+        for (int i = 0; i < text.length; i++)
+        {
+            int line = i + 1;
+            if (line < counts.length && counts[line] > 0)
+            {
+                out.printf("%10d %10.3f %10.1f %8d %8d %10d  %4d  %s%n", counts[line],
+                        times[line] / 1e6, bytes[line] / 1024.0,
+                        environments[line], entries[line], numbers[line], line, text[i]);
+            }
+            else
+            {
+                out.printf("%10s %10s %10s %8s %8s %10s  %4d  %s%n", "", "", "", "", "", "", line, text[i]);
+            }
+        }
+    }
+}
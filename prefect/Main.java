@@ -1,28 +1,111 @@
 package prefect;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Collections;
 import java.util.List;
 
 public class Main {
-    private static final Interpreter interpreter = new Interpreter();
+    private static Interpreter interpreter;
     static boolean hadError = false;
     static boolean hadRuntimeError = false;
+    private static boolean lazyFunctions = false;
+    private static boolean fused = false;
+    private static Output.FlushPolicy flushPolicy = Output.FlushPolicy.TIME;
+    private static boolean batch = false;
+    private static boolean profile = false;
+    private static String samples = null;
+    private static int sampleRate = 1000;
+    private static boolean lines = false;
+    private static boolean jmx = false;
+    private static long maxSteps = 0;
+    private static long timeout = 0;
+    private static long memoryQuota = 0;
+    private static String source = null;
 
     public static void main(String[] args) throws IOException
     {
-        if (args.length > 1)
+        int arg = 0;
+        while (arg < args.length && args[arg].startsWith("--"))
         {
-            System.out.println("Usage: prefect [script]");
-            System.exit(64);
+            switch (args[arg])
+            {
+                case "--lazy":
+                    lazyFunctions = true;
+                    break;
+                case "--fused":
+                    fused = true;
+                    break;
+                case "--flush=size":
+                    flushPolicy = Output.FlushPolicy.SIZE;
+                    break;
+                case "--flush=time":
+                    flushPolicy = Output.FlushPolicy.TIME;
+                    break;
+                case "--flush=exit":
+                    flushPolicy = Output.FlushPolicy.EXIT;
+                    break;
+                case "--batch":
+                    batch = true;
+                    break;
+                case "--profile":
+                    profile = true;
+                    break;
+                case "--lines":
+                    lines = true;
+                    break;
+                case "--jmx":
+                    jmx = true;
+                    break;
+                default:
+                    if (args[arg].startsWith("--sample="))
+                        samples = args[arg].substring("--sample=".length());
+                    else if (args[arg].startsWith("--sample-rate="))
+                        sampleRate = rate(args[arg].substring("--sample-rate=".length()));
+                    else if (args[arg].startsWith("--max-steps="))
+                        maxSteps = limit(args[arg].substring("--max-steps=".length()));
+                    else if (args[arg].startsWith("--timeout="))
+                        timeout = limit(args[arg].substring("--timeout=".length()));
+                    else if (args[arg].startsWith("--memory-quota="))
+                        memoryQuota = limit(args[arg].substring("--memory-quota=".length()));
+                    else
+                        usage();
+            }
+            arg++;
         }
-        else if (args.length == 1)
+
+        // Fused mode parses every body as it goes, so there's nothing for
+        // --lazy to defer.
+        if (lazyFunctions && fused)
+            usage();
+        // Past this the timeout overflows in nanoseconds.
+        if (timeout > Budget.MAX_TIMEOUT)
+            usage();
+
+        interpreter = new Interpreter(new Output(System.out, flushPolicy), new Input(System.in));
+        interpreter.prompts = !batch;
+        if (profile)
+            interpreter.profiler = new Profiler();
+        if (samples != null)
+            interpreter.sampler = new Sampler(sampleRate);
+        if (lines)
+            interpreter.lines = new LineProfiler();
+        if (jmx)
+            interpreter.setMetrics(Metrics.register());
+        if (maxSteps > 0 || timeout > 0)
+            interpreter.budget = new Budget(maxSteps, timeout);
+        if (memoryQuota > 0)
+            interpreter.quota = new Quota(memoryQuota);
+
+        if (args.length - arg > 1)
+        {
+            usage();
+        }
+        else if (args.length - arg == 1)
         {
-            runFile(args[0]);
+            runFile(args[arg]);
         }
         else
         {
@@ -31,10 +114,20 @@ public class Main {
     }
 
 
+    private static void usage()
+    {
+        System.out.println("Usage: prefect [--lazy | --fused] [--flush=size|time|exit] [--batch] [--profile] [--lines] [--jmx]\n" +
+                "               [--sample=file [--sample-rate=hz]] [--max-steps=n] [--timeout=ms]\n" +
+                "               [--memory-quota=bytes] [script]");
+        System.exit(64);
+    }
+
     private static void runFile(String path) throws IOException
     {
         byte[] bytes = Files.readAllBytes(Paths.get(path));
-        run(new String(bytes, Charset.defaultCharset()));
+        source = new String(bytes, Charset.defaultCharset());
+        run(source);
+        report();
 
         if (hadError)
             System.exit(65);
@@ -44,32 +137,111 @@ public class Main {
 
     private static void runPrompt() throws IOException
     {
-        InputStreamReader input = new InputStreamReader(System.in);
-        BufferedReader reader = new BufferedReader(input);
+        // Share the interpreter's reader, so read() inside a line sees the
+        // input that follows it.
+        Input input = interpreter.input;
 
         for (;;)
         {
-            System.out.print("> ");
-            String line = reader.readLine();
+            if (!batch)
+                System.out.print("> ");
+            String line = input.readLine();
             if (line == null) break;
             run(line);
 
             hadError = false;
         }
+        report();
+    }
+
+    private static int rate(String text)
+    {
+        try {
+            int rate = Integer.parseInt(text);
+            if (rate > 0 && rate <= 1_000_000)
+                return rate;
+        } catch (NumberFormatException exception) {
+            // Falls through to usage.
+        }
+
+        usage();
+        return 0;
+    }
+
+    private static long limit(String text)
+    {
+        try {
+            long limit = Long.parseLong(text);
+            if (limit > 0)
+                return limit;
+        } catch (NumberFormatException exception) {
+            // Falls through to usage.
+        }
+
+        usage();
+        return 0;
+    }
+
+    private static void report() throws IOException
+    {
+        if (interpreter.profiler != null)
+            interpreter.profiler.report(System.err);
+        if (interpreter.sampler != null)
+            interpreter.sampler.write(Paths.get(samples));
+        // Only a file has one source to list.
+        if (interpreter.lines != null && source != null)
+            interpreter.lines.report(source, System.err);
+        if (interpreter.quota != null)
+            interpreter.quota.report(System.err);
     }
 
     private static void run(String source)
     {
+        // Each file, or each line at the prompt, gets the whole budget.
+        if (interpreter.budget != null)
+            interpreter.budget.start();
+
+        try {
+            if (fused)
+            {
+                runFused(source);
+            }
+            else
+            {
+                runPasses(source);
+            }
+        } finally {
+            interpreter.output.flush();
+        }
+    }
+
+    private static void runPasses(String source)
+    {
+        Metrics metrics = interpreter.metrics;
+        long start = System.nanoTime();
+
+        Events.Compile event = Events.compiling();
         Scanner scanner = new Scanner(source);
         List<Token> tokens = scanner.scanTokens();
+        Events.compiled(event, "scan", tokens.size());
+        if (metrics != null)
+            start = metrics.phase(Metrics.Phase.SCAN, start);
 
-        Parser parser = new Parser(tokens);
+        event = Events.compiling();
+        Parser parser = new Parser(tokens, lazyFunctions);
         List<Stmt> statements = parser.parse();
+        Events.compiled(event, "parse", statements.size());
+        if (metrics != null)
+            start = metrics.phase(Metrics.Phase.PARSE, start);
 
         if (hadError) return;
 
+        event = Events.compiling();
         Resolver resolver = new Resolver(interpreter);
         resolver.resolve(statements);
+        Events.compiled(event, "resolve", statements.size());
+        if (metrics != null)
+            metrics.phase(Metrics.Phase.RESOLVE, start);
 
         if (hadError) return;
 
@@ -78,6 +250,51 @@ public class Main {
         //System.out.println(new AstPrinter().print());
     }
 
+    // Scans, parses, resolves and executes one top level statement at a time,
+    // so no token list or whole program tree is ever built. Statements before
+    // a syntax error have already run by the time it is reported.
+    //
+    // The phases are interleaved, so each statement's front end is one
+    // "fused" Compile event, and their times add up to one FUSED latency
+    // for the run.
+    private static void runFused(String source)
+    {
+        Metrics metrics = interpreter.metrics;
+        long frontEnd = 0;
+
+        Parser parser = new Parser(new Scanner(source));
+        Resolver resolver = new Resolver(interpreter);
+
+        try {
+            boolean first = true;
+            for (;;)
+            {
+                long start = System.nanoTime();
+                Events.Compile event = Events.compiling();
+                Stmt statement = parser.parseNext();
+                if (statement != null && !hadError)
+                    resolver.resolve(statement);
+                Events.compiled(event, "fused", statement != null ? 1 : 0);
+                frontEnd += System.nanoTime() - start;
+
+                if (statement == null || hadError) return;
+
+                // A lone expression is echoed, like in interpret().
+                if (first && statement instanceof Stmt.Expression && parser.isDone())
+                {
+                    interpreter.interpret(Collections.singletonList(statement));
+                    return;
+                }
+                first = false;
+
+                if (!interpreter.interpret(statement)) return;
+            }
+        } finally {
+            if (metrics != null)
+                metrics.record(Metrics.Phase.FUSED, frontEnd);
+        }
+    }
+
     static void error(int line, String message)
     {
         report(line, "", message);
@@ -105,9 +322,20 @@ public class Main {
         }
     }
 
-    static void runtimeError(RuntimeError error)
+    // Takes the interpreter that raised the error, since embedders and the
+    // benchmarks run their own rather than the one main() makes.
+    static void runtimeError(Interpreter interpreter, RuntimeError error)
     {
-        System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
+        Events.runtimeError(error);
+
+        // Keep whatever the script printed ahead of the error.
+        interpreter.output.flush();
+        // Natives raise errors without a token, which visitCallExpr fills in
+        // on the way out; one that escapes some other way has no line.
+        if (error.token == null)
+            System.err.println(error.getMessage());
+        else
+            System.err.println(error.getMessage() + "\n[line " + error.token.line + "]");
 
         hadRuntimeError = true;
     }
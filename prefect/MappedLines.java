@@ -0,0 +1,177 @@
+package prefect;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+// What lines(path) returns: a function that gives the next line of the file
+// on every call, and nil once the file is exhausted. The file is mapped a
+// window at a time, so only the current line is ever copied onto the heap.
+// The file is only open while a window is mapped, as a mapping stays valid
+// once its channel is closed, so a file that isn't read to the end doesn't
+// hold on to a descriptor.
+class MappedLines implements PrefectCallable {
+    private static final long WINDOW = 256L * 1024 * 1024;
+    // The longest a String can be.
+    private static final int MAX_STRING = Integer.MAX_VALUE - 8;
+    private static final int INITIAL_TEXT = 16 * 1024 * 1024;
+
+    private final Path path;
+    private final long size;
+    private final Charset charset;
+    private MappedByteBuffer window;
+    private long windowStart = 0;
+    private long position = 0;
+
+    MappedLines(Path path) throws IOException
+    {
+        this.path = path;
+        this.size = Files.size(path);
+        this.charset = Charset.defaultCharset();
+    }
+
+    // What readFile(path) returns: the whole file, decoded a window at a
+    // time, since one mapping can't be bigger than 2 GB.
+    static String readAll(Path path) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Charset charset = Charset.defaultCharset();
+
+            // Even at the most bytes a character can take, more characters
+            // than a String holds. Anything smaller is decoded to find out.
+            if (size / charset.newEncoder().maxBytesPerChar() > MAX_STRING)
+                throw tooBig();
+
+            CharsetDecoder decoder = charset.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            // Grown as it fills rather than sized from the file up front, so
+            // a file that turns out too big fails before taking the heap.
+            StringBuilder text = new StringBuilder((int)Math.min(size, INITIAL_TEXT));
+            CharBuffer chars = CharBuffer.allocate(64 * 1024);
+
+            long position = 0;
+            boolean last = false;
+            while (!last)
+            {
+                long length = Math.min(WINDOW, size - position);
+                last = position + length == size;
+                MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                while (decoder.decode(window, chars, last).isOverflow())
+                    drain(chars, text);
+
+                // A character cut off at the end of the window is decoded
+                // again from the start of the next one.
+                position += window.position();
+            }
+
+            while (decoder.flush(chars).isOverflow())
+                drain(chars, text);
+            drain(chars, text);
+
+            return text.toString();
+        }
+    }
+
+    private static RuntimeError tooBig()
+    {
+        return new RuntimeError(null, "File is too big to read into one string.");
+    }
+
+    private static void drain(CharBuffer chars, StringBuilder text)
+    {
+        chars.flip();
+        if (chars.remaining() > MAX_STRING - text.length())
+            throw tooBig();
+
+        text.append(chars);
+        chars.clear();
+    }
+
+    @Override
+    public int arity()
+    {
+        return 0;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments)
+    {
+        try {
+            return next();
+        } catch (IOException exception) {
+            return null;
+        }
+    }
+
+    private String next() throws IOException
+    {
+        if (position >= size)
+            return null;
+
+        long length = WINDOW;
+        while (true)
+        {
+            if (window == null || position + 1 > windowStart + window.limit())
+                map(position, length);
+
+            int start = (int)(position - windowStart);
+            int end = start;
+            int limit = window.limit();
+            while (end < limit && window.get(end) != '\n')
+                end++;
+
+            boolean atEnd = windowStart + limit >= size;
+            if (end < limit || atEnd)
+            {
+                position = windowStart + end + 1;
+                return decode(start, end);
+            }
+
+            // The line runs past this window. Map again from where it starts,
+            // with a bigger window if it already started at the front.
+            if (start == 0)
+            {
+                // One window can't be bigger, and neither could the String.
+                if (length == Integer.MAX_VALUE)
+                    throw new RuntimeError(null, "Line is too long, over " + Integer.MAX_VALUE + " bytes.");
+                length = Math.min(length * 2, Integer.MAX_VALUE);
+            }
+            window = null;
+        }
+    }
+
+    private void map(long start, long length) throws IOException
+    {
+        windowStart = start;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(length, size - start));
+        }
+    }
+
+    private String decode(int start, int end)
+    {
+        if (end > start && window.get(end - 1) == '\r')
+            end--;
+
+        byte[] bytes = new byte[end - start];
+        window.get(start, bytes);
+        return new String(bytes, charset);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<lines " + path + ">";
+    }
+}
@@ -0,0 +1,184 @@
+package prefect;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters behind the MBean --jmx registers, shared by every interpreter in
+// the JVM. They are LongAdders, so interpreters on different threads bump
+// their own cells instead of fighting over one cache line, and reads sum the
+// cells. Interpreters only touch them once handed the instance, so without
+// --jmx each hook is a null check.
+class Metrics implements MetricsMBean {
+    // FUSED is the three together, for --fused runs.
+    enum Phase { SCAN, PARSE, RESOLVE, FUSED }
+
+    // Upper bounds of the latency buckets in microseconds, doubling from 16
+    // up to about a second; the last bucket takes everything slower.
+    private static final int BUCKETS = 18;
+
+    // What a HashMap entry costs with its boxed key and value: the node, its
+    // share of the table, and two boxes. A rough figure, as it says.
+    static final long ENTRY_BYTES = 32 + 8 + 2 * 16;
+
+    private static Metrics instance;
+
+    final LongAdder statements = new LongAdder();
+    final LongAdder calls = new LongAdder();
+    final LongAdder environments = new LongAdder();
+    final LongAdder executions = new LongAdder();
+    private final LongAdder[][] latency = new LongAdder[Phase.values().length][BUCKETS];
+    private final Set<Interpreter> interpreters = Collections.synchronizedSet(Collections.newSetFromMap(new WeakHashMap<>()));
+
+    private Metrics()
+    {
+        for (LongAdder[] buckets : latency)
+        {
+            for (int i = 0; i < buckets.length; i++)
+                buckets[i] = new LongAdder();
+        }
+    }
+
+    // The shared instance, registered with the platform MBean server the
+    // first time it's asked for.
+    static synchronized Metrics register()
+    {
+        if (instance == null)
+        {
+            instance = new Metrics();
+            try {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName("prefect:type=Interpreter"));
+            } catch (JMException exception) {
+                throw new IllegalStateException("Couldn't register the interpreter MBean.", exception);
+            }
+        }
+
+        return instance;
+    }
+
+    void track(Interpreter interpreter)
+    {
+        interpreters.add(interpreter);
+    }
+
+    // Records a phase that started at start, from System.nanoTime, and
+    // returns the time it ended.
+    long phase(Phase phase, long start)
+    {
+        long end = System.nanoTime();
+        record(phase, end - start);
+
+        return end;
+    }
+
+    // Records a phase that took nanos in all.
+    void record(Phase phase, long nanos)
+    {
+        long micros = nanos / 1000;
+
+        int bucket = 0;
+        while (bucket < BUCKETS - 1 && micros >= 16L << bucket)
+            bucket++;
+        latency[phase.ordinal()][bucket].increment();
+    }
+
+    @Override
+    public long getStatementsExecuted()
+    {
+        return statements.sum();
+    }
+
+    @Override
+    public long getFunctionCalls()
+    {
+        return calls.sum();
+    }
+
+    @Override
+    public long getEnvironmentsAllocated()
+    {
+        return environments.sum();
+    }
+
+    // Each interpreter counts the entries of the dictionaries its scripts
+    // filled, less those removed and those of dictionaries since collected.
+    @Override
+    public long getDictionaryEntries()
+    {
+        List<Interpreter> live;
+        synchronized (interpreters)
+        {
+            live = new ArrayList<>(interpreters);
+        }
+
+        long entries = 0;
+        for (Interpreter interpreter : live)
+            entries += interpreter.dictionaryEntries.total();
+
+        return entries;
+    }
+
+    @Override
+    public long getDictionaryBytesEstimate()
+    {
+        return getDictionaryEntries() * ENTRY_BYTES;
+    }
+
+    @Override
+    public long getActiveExecutions()
+    {
+        return executions.sum();
+    }
+
+    @Override
+    public String[] getLatencyBuckets()
+    {
+        String[] bounds = new String[BUCKETS];
+        for (int i = 0; i < BUCKETS - 1; i++)
+            bounds[i] = "< " + (16L << i) + " us";
+        bounds[BUCKETS - 1] = ">= " + (16L << (BUCKETS - 2)) + " us";
+
+        return bounds;
+    }
+
+    @Override
+    public long[] getScanLatency()
+    {
+        return counts(Phase.SCAN);
+    }
+
+    @Override
+    public long[] getParseLatency()
+    {
+        return counts(Phase.PARSE);
+    }
+
+    @Override
+    public long[] getResolveLatency()
+    {
+        return counts(Phase.RESOLVE);
+    }
+
+    @Override
+    public long[] getFusedLatency()
+    {
+        return counts(Phase.FUSED);
+    }
+
+    private long[] counts(Phase phase)
+    {
+        LongAdder[] buckets = latency[phase.ordinal()];
+        long[] counts = new long[buckets.length];
+        for (int i = 0; i < counts.length; i++)
+            counts[i] = buckets[i].sum();
+
+        return counts;
+    }
+}
@@ -0,0 +1,21 @@
+package prefect;
+
+// What the interpreter exposes over JMX, under prefect:type=Interpreter.
+// Counts are since the JVM started; the dictionary figures are for the
+// interpreters still alive. Latency histograms have one count per bucket,
+// with the bucket bounds in getLatencyBuckets. A --fused run interleaves
+// the phases, so it counts in getFusedLatency instead of the other three.
+public interface MetricsMBean {
+    long getStatementsExecuted();
+    long getFunctionCalls();
+    long getEnvironmentsAllocated();
+    long getDictionaryEntries();
+    long getDictionaryBytesEstimate();
+    long getActiveExecutions();
+
+    String[] getLatencyBuckets();
+    long[] getScanLatency();
+    long[] getParseLatency();
+    long[] getResolveLatency();
+    long[] getFusedLatency();
+}
@@ -0,0 +1,84 @@
+package prefect;
+
+// Numbers are either a Long or a Double. Literals without a point, and the
+// results of integer operations that neither overflow nor leave a fraction,
+// are Longs; everything else is a Double, and the two compare and print
+// alike, so a script can't tell 2 from 2.0 except in speed.
+//
+// Whole numbers that fit a long print as their digits, whichever kind holds
+// them; other Doubles keep Double.toString.
+class Numbers {
+    private Numbers() {}
+
+    static boolean isNumber(Object value)
+    {
+        return value instanceof Long || value instanceof Double;
+    }
+
+    static double toDouble(Object value)
+    {
+        return ((Number)value).doubleValue();
+    }
+
+    // value as a Long if it is whole and fits, otherwise as a Double. -0.0
+    // stays a Double, so that it still prints as -0.
+    static Object of(double value)
+    {
+        if (isWhole(value))
+            return (long)value;
+
+        return value;
+    }
+
+    // Digits with at most a leading '-' that fit a long are read as a Long,
+    // anything else Double.parseDouble accepts as a Double.
+    static Object parse(String text)
+    {
+        int start = text.startsWith("-") ? 1 : 0;
+        int length = text.length() - start;
+        boolean integer = length > 0 && length <= 18;
+        for (int i = start; integer && i < text.length(); i++)
+            integer = text.charAt(i) >= '0' && text.charAt(i) <= '9';
+
+        if (!integer)
+            return Double.parseDouble(text);
+
+        long value = Long.parseLong(text);
+        return value == 0 && start == 1 ? (Object)(-0.0) : (Object)value;
+    }
+
+    static boolean isWhole(double value)
+    {
+        return value == (long)value && Math.abs(value) < 0x1p63 &&
+                (value != 0 || 1 / value > 0);
+    }
+
+    static String format(double value)
+    {
+        if (isWhole(value))
+            return Long.toString((long)value);
+
+        if (value == 0)
+            return "-0";
+
+        return Double.toString(value);
+    }
+
+    // Writes the digits of value into the end of digits, which needs room
+    // for 20, returning where they start.
+    static int digits(long value, byte[] digits)
+    {
+        // Counted on the negative side, which also holds Long.MIN_VALUE.
+        int at = digits.length;
+        long rest = value < 0 ? value : -value;
+        do {
+            digits[--at] = (byte)('0' - rest % 10);
+            rest /= 10;
+        } while (rest != 0);
+
+        if (value < 0)
+            digits[--at] = '-';
+
+        return at;
+    }
+}
@@ -0,0 +1,218 @@
+package prefect;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.ref.WeakReference;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Buffered standard output owned by the interpreter. Text is encoded straight
+// into a byte buffer, and the underlying stream is only written when the
+// flush policy says so, instead of once per printed line.
+//
+// Under TIME a shared daemon thread also flushes output that has waited an
+// interval, so the last lines before a long computation show up in time.
+// That thread is why the methods touching the buffer are synchronized; with
+// no other thread about, the lock is never contended.
+public class Output {
+    enum FlushPolicy
+    {
+        SIZE, // When the buffer is full.
+        TIME, // When the buffer is full, or once output has waited the interval.
+        EXIT, // Only on flush(). The buffer grows to hold everything until then,
+              // up to MAX_CAPACITY, and is written out when that is full.
+    }
+
+    private static final ScheduledExecutorService flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+        Thread thread = new Thread(task, "prefect-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static final int DEFAULT_CAPACITY = 64 * 1024;
+    // The largest array most JVMs will allocate.
+    static final int MAX_CAPACITY = Integer.MAX_VALUE - 8;
+    static final long DEFAULT_INTERVAL = 100_000_000L; // Nanoseconds.
+
+    private static final byte[] lineSeparator = System.lineSeparator().getBytes();
+
+    private final OutputStream out;
+    private final Charset charset;
+    private final FlushPolicy policy;
+    private final long interval;
+    private final byte[] digits = new byte[20];
+    private byte[] buffer;
+    private int count = 0;
+    private long lastFlush = System.nanoTime();
+    // Started by the first write under TIME.
+    private ScheduledFuture<?> timer = null;
+
+    Output(OutputStream out, FlushPolicy policy)
+    {
+        this(out, policy, DEFAULT_CAPACITY, DEFAULT_INTERVAL);
+    }
+
+    Output(OutputStream out, FlushPolicy policy, int capacity, long interval)
+    {
+        this.out = out;
+        this.charset = Charset.defaultCharset();
+        this.policy = policy;
+        this.buffer = new byte[capacity];
+        this.interval = interval;
+    }
+
+    synchronized void print(String text)
+    {
+        append(text);
+        written();
+    }
+
+    synchronized void println(String text)
+    {
+        append(text);
+        write(lineSeparator);
+        written();
+    }
+
+    synchronized void println(double number)
+    {
+        if (Numbers.isWhole(number))
+        {
+            int start = Numbers.digits((long)number, digits);
+            write(digits, start, digits.length - start);
+        }
+        else
+        {
+            append(Numbers.format(number));
+        }
+        write(lineSeparator);
+        written();
+    }
+
+    synchronized void println(long number)
+    {
+        int start = Numbers.digits(number, digits);
+        write(digits, start, digits.length - start);
+        write(lineSeparator);
+        written();
+    }
+
+    private void append(String text)
+    {
+        int length = text.length();
+        for (int i = 0; i < length; i++)
+        {
+            char c = text.charAt(i);
+            if (c >= 0x80)
+            {
+                // Leave anything that isn't ASCII to the charset.
+                write(text.substring(i).getBytes(charset));
+                break;
+            }
+
+            if (count == buffer.length)
+                full();
+            buffer[count++] = (byte)c;
+        }
+    }
+
+    private void written()
+    {
+        if (policy != FlushPolicy.TIME)
+            return;
+
+        if (System.nanoTime() - lastFlush >= interval)
+            flush();
+        else if (timer == null)
+            timer = schedule(this, interval);
+    }
+
+    // Writes out whatever is buffered, if anything is; for when the script
+    // is about to wait on something else, like its input.
+    synchronized void flushPending()
+    {
+        if (count > 0)
+            flush();
+    }
+
+    private synchronized void flushIfDue()
+    {
+        if (count > 0 && System.nanoTime() - lastFlush >= interval)
+            flush();
+    }
+
+    // The task only holds the Output weakly, and cancels itself once the
+    // Output is gone, so interpreters that are dropped don't pile up tasks.
+    private static ScheduledFuture<?> schedule(Output output, long interval)
+    {
+        WeakReference<Output> weak = new WeakReference<>(output);
+        ScheduledFuture<?>[] task = new ScheduledFuture<?>[1];
+        synchronized (task)
+        {
+            task[0] = flusher.scheduleWithFixedDelay(() -> {
+                Output live = weak.get();
+                if (live != null)
+                {
+                    live.flushIfDue();
+                    return;
+                }
+
+                synchronized (task)
+                {
+                    task[0].cancel(false);
+                }
+            }, interval, interval, TimeUnit.NANOSECONDS);
+        }
+
+        return task[0];
+    }
+
+    synchronized void flush()
+    {
+        try {
+            out.write(buffer, 0, count);
+            out.flush();
+        } catch (IOException exception) {
+            // Same as System.out, which drops output it can't write.
+        }
+
+        count = 0;
+        lastFlush = System.nanoTime();
+    }
+
+    private void write(byte[] bytes)
+    {
+        write(bytes, 0, bytes.length);
+    }
+
+    private void write(byte[] bytes, int offset, int length)
+    {
+        int end = offset + length;
+        while (offset < end)
+        {
+            if (count == buffer.length)
+                full();
+
+            int chunk = Math.min(end - offset, buffer.length - count);
+            System.arraycopy(bytes, offset, buffer, count, chunk);
+            count += chunk;
+            offset += chunk;
+        }
+    }
+
+    private void full()
+    {
+        if (policy == FlushPolicy.EXIT && buffer.length < MAX_CAPACITY)
+        {
+            buffer = Arrays.copyOf(buffer, (int)Math.min(2L * buffer.length, MAX_CAPACITY));
+        }
+        else
+        {
+            flush();
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package prefect;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Map;
+
+// Amounts held by objects, like the entries of a dictionary or the bytes
+// behind a Rope, kept without keeping the objects alive. An owner's amount
+// leaves the total when it is taken back, or once the collector has cleared
+// the owner, which add() notices; so an owner that became garbage still
+// counts until the next collection.
+//
+// Only the interpreter's thread calls add(). total() may be read from any
+// thread, and sees the figure as of the last add().
+class Owners {
+    // Owners are looked up by identity. Those with the same identity hash
+    // are chained.
+    private static class Owned extends WeakReference<Object>
+    {
+        Owned(Object owner, int hash, Owned next, ReferenceQueue<Object> queue)
+        {
+            super(owner, queue);
+            this.hash = hash;
+            this.next = next;
+        }
+
+        final int hash;
+        Owned next;
+        long amount = 0;
+    }
+
+    private final ReferenceQueue<Object> cleared = new ReferenceQueue<>();
+    private final Map<Integer, Owned> owned = new HashMap<>();
+    // Filling one dictionary in a loop adds to the same owner every time.
+    private Owned last = null;
+    private volatile long total = 0;
+
+    // Adds to what owner holds, or takes back with a negative amount. An
+    // owner never goes below zero, so taking back from one that was never
+    // added to does nothing.
+    void add(Object owner, long amount)
+    {
+        long total = this.total - release();
+
+        Owned entry = find(owner, amount > 0);
+        if (entry != null)
+        {
+            amount = Math.max(amount, -entry.amount);
+            entry.amount += amount;
+            total += amount;
+        }
+
+        this.total = total;
+    }
+
+    long total()
+    {
+        return total;
+    }
+
+    private Owned find(Object owner, boolean create)
+    {
+        if (last != null && last.get() == owner)
+            return last;
+
+        int hash = System.identityHashCode(owner);
+        Owned first = owned.get(hash);
+        for (Owned entry = first; entry != null; entry = entry.next)
+        {
+            if (entry.get() == owner)
+                return last = entry;
+        }
+
+        if (!create)
+            return null;
+
+        last = new Owned(owner, hash, first, cleared);
+        owned.put(hash, last);
+        return last;
+    }
+
+    // Unlinks the owners the collector has cleared since the last call, and
+    // returns what they held.
+    private long release()
+    {
+        long released = 0;
+        for (Owned entry = (Owned)cleared.poll(); entry != null; entry = (Owned)cleared.poll())
+        {
+            released += entry.amount;
+
+            Owned first = owned.get(entry.hash);
+            if (first == entry)
+            {
+                if (entry.next == null)
+                    owned.remove(entry.hash);
+                else
+                    owned.put(entry.hash, entry.next);
+                continue;
+            }
+
+            for (Owned previous = first; previous != null; previous = previous.next)
+            {
+                if (previous.next == entry)
+                {
+                    previous.next = entry.next;
+                    break;
+                }
+            }
+        }
+
+        return released;
+    }
+}
@@ -8,11 +8,85 @@ import static prefect.TokenType.*;
 public class Parser {
     private static class ParseError extends RuntimeException {}
     private final List<Token> tokens;
+    private final Scanner scanner;
+    private final boolean lazyFunctions;
+    private Token next;
+    private Token previous;
     private int current = 0;
+    private int nesting = 0;
+    // Yield statements parsed so far in the current function body.
+    private int yields = 0;
+
+    // Binding power of every infix operator, lowest first. Operators that
+    // aren't in the table have NONE and end the expression.
+    private enum Precedence
+    {
+        NONE,
+        ASSIGNMENT, // =
+        TERNARY,    // ?:
+        OR,         // or
+        AND,        // and
+        EQUALITY,   // == !=
+        COMPARISON, // < > <= >=
+        TERM,       // + -
+        FACTOR,     // * / %
+        UNARY,      // ! -
+        CALL;       // ()
+
+        private static final Precedence[] values = values();
+
+        Precedence next()
+        {
+            return values[ordinal() + 1];
+        }
+    }
+
+    private static final Precedence[] infixPrecedence = new Precedence[TokenType.values().length];
+
+    static
+    {
+        Arrays.fill(infixPrecedence, Precedence.NONE);
+        infixPrecedence[EQUAL.ordinal()]         = Precedence.ASSIGNMENT;
+        infixPrecedence[QMARK.ordinal()]         = Precedence.TERNARY;
+        infixPrecedence[OR.ordinal()]            = Precedence.OR;
+        infixPrecedence[AND.ordinal()]           = Precedence.AND;
+        infixPrecedence[BANG_EQUAL.ordinal()]    = Precedence.EQUALITY;
+        infixPrecedence[EQUAL_EQUAL.ordinal()]   = Precedence.EQUALITY;
+        infixPrecedence[GREATER.ordinal()]       = Precedence.COMPARISON;
+        infixPrecedence[GREATER_EQUAL.ordinal()] = Precedence.COMPARISON;
+        infixPrecedence[LESS.ordinal()]          = Precedence.COMPARISON;
+        infixPrecedence[LESS_EQUAL.ordinal()]    = Precedence.COMPARISON;
+        infixPrecedence[MINUS.ordinal()]         = Precedence.TERM;
+        infixPrecedence[PLUS.ordinal()]          = Precedence.TERM;
+        infixPrecedence[SLASH.ordinal()]         = Precedence.FACTOR;
+        infixPrecedence[STAR.ordinal()]          = Precedence.FACTOR;
+        infixPrecedence[MODULUS.ordinal()]       = Precedence.FACTOR;
+        infixPrecedence[LEFT_PAREN.ordinal()]    = Precedence.CALL;
+    }
 
     Parser(List<Token> tokens)
+    {
+        this(tokens, false);
+    }
+
+    // With lazyFunctions set, the bodies of top level functions are only
+    // brace-matched here and get parsed on their first call.
+    Parser(List<Token> tokens, boolean lazyFunctions)
     {
         this.tokens = tokens;
+        this.scanner = null;
+        this.lazyFunctions = lazyFunctions;
+        this.next = tokens.get(0);
+    }
+
+    // Pulls tokens from the scanner as it goes instead of reading a scanned
+    // list. Only the current and previous token are held.
+    Parser(Scanner scanner)
+    {
+        this.tokens = null;
+        this.scanner = scanner;
+        this.lazyFunctions = false;
+        this.next = scanner.nextToken();
     }
 
     /*
@@ -38,17 +112,54 @@ public class Parser {
         return statements;
     }
 
+    // Parses a single top level declaration, or returns null at the end of
+    // the source. Also null after a syntax error, which has been reported.
+    Stmt parseNext()
+    {
+        if (isAtEnd())
+            return null;
+
+        return declaration();
+    }
+
+    boolean isDone()
+    {
+        return isAtEnd();
+    }
+
+    List<Stmt> parseDeferred(Stmt.Function function)
+    {
+        // The '{' is already consumed.
+        current = 1;
+        next = tokens.get(current);
+        previous = tokens.get(0);
+        nesting = 1;
+        try {
+            List<Stmt> body = block();
+            function.generator = yields > 0;
+            return body;
+        } catch (ParseError error)
+        {
+            return null;
+        }
+    }
+
     private Stmt declaration()
     {
+        int line = peek().line;
         try {
+            Stmt stmt;
             if (match(FUN))
-                return function("function");
-            if (match(VAR))
-                return varDeclaration();
-            if (match(DICTIONARY))
-                return dictionaryDeclaration();
+                stmt = function("function");
+            else if (match(VAR))
+                stmt = varDeclaration();
+            else if (match(DICTIONARY))
+                stmt = dictionaryDeclaration();
+            else
+                return statement();
 
-            return statement();
+            stmt.line = line;
+            return stmt;
         } catch (ParseError error)
         {
             synchronize();
@@ -57,6 +168,14 @@ public class Parser {
     }
 
     private Stmt statement()
+    {
+        int line = peek().line;
+        Stmt stmt = unmarkedStatement();
+        stmt.line = line;
+        return stmt;
+    }
+
+    private Stmt unmarkedStatement()
     {
         if(match(BREAK))
             return breakStatement();
@@ -72,15 +191,26 @@ public class Parser {
             return printStatement();
         if (match(RETURN))
             return returnStatement();
+        if (match(YIELD))
+            return yieldStatement();
         if (match(LEFT_BRACE))
-            return new Stmt.Block(block());
+        {
+            int before = yields;
+            Stmt block = new Stmt.Block(block());
+            block.yields = yields > before;
+            return block;
+        }
 
         return expressionStatement();
     }
 
+    // The statements it's desugared into are all on the line of the 'for',
+    // except the increment, which is on its own.
     private Stmt forStatement()
     {
+        int line = previous().line;
         consume(LEFT_PAREN, "Expect '(' after 'for'.");
+        int before = yields;
 
         Stmt initializer;
         if (match(SEMICOLON))
@@ -105,6 +235,7 @@ public class Parser {
         consume(SEMICOLON, "Expect ';' after loop condition.");
 
         Expr increment = null;
+        int incrementLine = peek().line;
 
         if(!check(RIGHT_PAREN))
         {
@@ -113,22 +244,28 @@ public class Parser {
         consume(RIGHT_PAREN, "Expect ')' after increment.");
 
         Stmt body = statement();
+        boolean yielding = yields > before;
 
         if (increment != null)
         {
-            body = new Stmt.Block(
-                    Arrays.asList(
-                            body,
-                            new Stmt.Expression(increment)));
+            Stmt step = new Stmt.Expression(increment);
+            step.line = incrementLine;
+            body = new Stmt.Block(Arrays.asList(body, step));
+            body.yields = yielding;
+            body.line = line;
         }
 
         if (condition == null)
             condition = new Expr.Literal(true);
         body = new Stmt.While(condition, body);
+        body.yields = yielding;
+        body.line = line;
 
         if (initializer != null)
         {
+            initializer.line = line;
             body = new Stmt.Block(Arrays.asList(initializer, body));
+            body.yields = yielding;
         }
 
         return body;
@@ -137,17 +274,21 @@ public class Parser {
     private Stmt whileStatement()
     {
         consume(LEFT_PAREN, "Expect '(' after 'while'.");
+        int before = yields;
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after 'while'.");
 
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        Stmt loop = new Stmt.While(condition, body);
+        loop.yields = yields > before;
+        return loop;
     }
 
     private Stmt ifStatement()
     {
         consume(LEFT_PAREN, "Expect '(' after 'if'.");
+        int before = yields;
         Expr condition = expression();
         consume(RIGHT_PAREN, "Expect ')' after if condition.");
 
@@ -158,7 +299,9 @@ public class Parser {
             elseBranch = statement();
         }
 
-        return new Stmt.If(condition, thenBranch, elseBranch);
+        Stmt stmt = new Stmt.If(condition, thenBranch, elseBranch);
+        stmt.yields = yields > before;
+        return stmt;
     }
 
     private Stmt.Function function(String kind)
@@ -181,8 +324,47 @@ public class Parser {
 
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before " + kind + " body.");
+
+        if (lazyFunctions && nesting == 0)
+        {
+            int bodyStart = current - 1;
+            skipBody();
+
+            // A copy of just the body, so the program's token list can go
+            // once parsing is done. The EOF stands in for what followed.
+            List<Token> body = new ArrayList<>(tokens.subList(bodyStart, current));
+            body.add(new Token(EOF, "", null, previous().line));
+            return Stmt.Function.deferred(name, parameters, body);
+        }
+
+        int outer = yields;
+        yields = 0;
         List<Stmt> body = block();
-        return new Stmt.Function(name, parameters, body);
+
+        Stmt.Function function = new Stmt.Function(name, parameters, body);
+        function.generator = yields > 0;
+        yields = outer;
+        return function;
+    }
+
+    // Moves past the '}' matching an already consumed '{'.
+    private void skipBody()
+    {
+        int depth = 1;
+        while (!isAtEnd())
+        {
+            TokenType type = advance().type;
+            if (type == LEFT_BRACE)
+            {
+                depth++;
+            }
+            else if (type == RIGHT_BRACE && --depth == 0)
+            {
+                return;
+            }
+        }
+
+        throw error(peek(), "Expect '}' after block.");
     }
 
     private Stmt varDeclaration()
@@ -229,6 +411,23 @@ public class Parser {
         return new Stmt.Return(keyword, value);
     }
 
+    private Stmt yieldStatement()
+    {
+        Token keyword = previous();
+        Expr value = null;
+        if (!check(SEMICOLON))
+        {
+            value = expression();
+        }
+
+        consume(SEMICOLON, "Expect ';' after yield value.");
+        yields++;
+
+        Stmt stmt = new Stmt.Yield(keyword, value);
+        stmt.yields = true;
+        return stmt;
+    }
+
     private Stmt breakStatement()
     {
         Token keyword = previous();
@@ -255,11 +454,12 @@ public class Parser {
     {
         List<Stmt> statements = new ArrayList<>();
 
+        nesting++;
         while(!check(RIGHT_BRACE) && !isAtEnd())
         {
             statements.add(declaration());
         }
-
+        nesting--;
 
         consume(RIGHT_BRACE, "Expect '}' after block.");
         return statements;
@@ -267,172 +467,111 @@ public class Parser {
 
     private Expr expression()
     {
-        return assignment();
+        return parsePrecedence(Precedence.ASSIGNMENT);
     }
 
-    private Expr assignment()
+    // Precedence climbing: parses an operand, then keeps folding in infix
+    // operators for as long as they bind at least as tightly as 'min'.
+    private Expr parsePrecedence(Precedence min)
     {
-        Expr expr = comma();
+        Expr expr = prefix(min);
 
-        if (match(EQUAL))
+        while (true)
         {
-            Token equals = previous();
-            //System.out.println(expr);
-            Expr value = assignment();
-
-            if (expr instanceof Expr.Variable)
-            {
-                Token name = ((Expr.Variable)expr).name;
-                return new Expr.Assign(name, value);
-            }
+            Precedence precedence = infixPrecedence[peek().type.ordinal()];
+            if (precedence == Precedence.NONE || precedence.compareTo(min) < 0)
+                break;
 
-            if (expr instanceof Expr.Dictionary)
+            Token operator = advance();
+            switch (precedence)
             {
-                Token name = ((Expr.Dictionary)expr).name;
-                Expr index = ((Expr.Dictionary)expr).index;
-
-                return new Expr.DictionaryAssign(name, index, value);
+                case ASSIGNMENT:
+                    return assignment(expr, operator);
+                case TERNARY:
+                {
+                    Expr left = parsePrecedence(Precedence.OR);
+                    consume(TokenType.COLON, "Expected ':' for ternary operator.");
+                    Expr right = parsePrecedence(Precedence.TERNARY);
+                    expr = new Expr.Ternary(expr, left, right);
+                    break;
+                }
+                case OR:
+                case AND:
+                    expr = new Expr.Logical(expr, operator, parsePrecedence(precedence.next()));
+                    break;
+                case CALL:
+                    expr = finishCall(expr);
+                    break;
+                default:
+                    expr = new Expr.Binary(expr, operator, parsePrecedence(precedence.next()));
+                    break;
             }
-
-            error(equals, "Invalid assignment target.");
         }
 
         return expr;
     }
 
-    private Expr comma()
+    private Expr assignment(Expr target, Token equals)
     {
-        Expr expr = ternary();
-        //while(match(COMMA))
-        //{
-        //    expr = ternary();
-        //}
-
-        return expr;
-    }
+        Expr value = parsePrecedence(Precedence.ASSIGNMENT);
 
-    private Expr ternary()
-    {
-        Expr expr = or();
-        while(match(QMARK))
+        if (target instanceof Expr.Variable)
         {
-            Expr left = or();
-            consume(TokenType.COLON, "Expected ':' for ternary operator.");
-            Expr right = ternary();
-            expr = new Expr.Ternary(expr, left, right);
+            Token name = ((Expr.Variable)target).name;
+            return new Expr.Assign(name, value);
         }
 
-        return expr;
-    }
-
-    private Expr or()
-    {
-        Expr expr = and();
-
-        while(match(OR))
+        if (target instanceof Expr.Dictionary)
         {
-            Token operator = previous();
-            Expr right = and();
-            expr = new Expr.Logical(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr and()
-    {
-        Expr expr = equality();
+            Token name = ((Expr.Dictionary)target).name;
+            Expr index = ((Expr.Dictionary)target).index;
 
-        while (match(AND))
-        {
-            Token operator = previous();
-            Expr right = equality();
-            expr = new Expr.Logical(expr, operator, right);
+            return new Expr.DictionaryAssign(name, index, value);
         }
 
-        return expr;
+        error(equals, "Invalid assignment target.");
+        return target;
     }
 
-    private Expr equality()
+    private Expr prefix(Precedence min)
     {
-        if(match(BANG_EQUAL, EQUAL_EQUAL))
+        // A binary operator where an operand should start. Report it, skip it
+        // and carry on, for each level the operand could still belong to.
+        if (min.compareTo(Precedence.EQUALITY) <= 0 && skipOperator(Precedence.EQUALITY))
         {
             error(previous(), "Missing left operand.");
         }
-        Expr expr = comparison();
-        while (match(BANG_EQUAL, EQUAL_EQUAL))
-        {
-            Token operator = previous();
-            Expr right = comparison();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr comparison()
-    {
-        if (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL))
+        if (min.compareTo(Precedence.COMPARISON) <= 0 && skipOperator(Precedence.COMPARISON))
         {
             error(previous(), "Missing left operand.");
         }
-        Expr expr = term();
-        while (match(GREATER, GREATER_EQUAL, LESS, LESS_EQUAL))
-        {
-            Token operator = previous();
-            Expr right = term();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr term()
-    {
-        Expr expr = factor();
-        while (match(MINUS, PLUS))
-        {
-            Token operator = previous();
-            Expr right = factor();
-            expr = new Expr.Binary(expr, operator, right);
-        }
-
-        return expr;
-    }
-
-    private Expr factor()
-    {
-        if(match(SLASH, STAR, MODULUS))
+        if (min.compareTo(Precedence.FACTOR) <= 0 && skipOperator(Precedence.FACTOR))
         {
             error(previous(), "Missing left operand.");
         }
-        Expr expr = unary();
-        while (match(SLASH, STAR, MODULUS))
-        {
-            Token operator = previous();
-            Expr right = unary();
-            expr = new Expr.Binary(expr, operator, right);
-        }
 
-        return expr;
-    }
-
-    private Expr unary()
-    {
-        if(match(BANG, MINUS, PLUS))
+        if (match(BANG, MINUS, PLUS))
         {
             Token operator = previous();
-            if(operator.type == PLUS)
+            if (operator.type == PLUS)
             {
                 Main.error(operator.line, "Unary '+' expressions are not supported.");
             }
-            Expr right = unary();
+            Expr right = parsePrecedence(Precedence.UNARY);
 
             return new Expr.Unary(operator, right);
-
         }
 
-        return call();
+        return primary();
+    }
+
+    private boolean skipOperator(Precedence precedence)
+    {
+        if (infixPrecedence[peek().type.ordinal()] != precedence)
+            return false;
+
+        advance();
+        return true;
     }
 
     private Expr finishCall(Expr callee)
@@ -455,28 +594,9 @@ public class Parser {
         return new Expr.Call(callee, paren, arguments);
     }
 
-    private Expr call()
-    {
-        Expr expr = primary();
-
-        while(true)
-        {
-            if (match(LEFT_PAREN))
-            {
-                expr = finishCall(expr);
-            }
-            else
-            {
-
-                break;
-            }
-        }
-
-        return expr;
-    }
-
     private Expr lambda()
     {
+        Token keyword = previous();
         consume(LEFT_PAREN, "Expected '(' after lambda.");
 
         List<Token> parameters = new ArrayList<>();
@@ -495,9 +615,14 @@ public class Parser {
         consume(RIGHT_PAREN, "Expect ')' after parameters.");
         consume(LEFT_BRACE, "Expect '{' before body.");
 
+        int outer = yields;
+        yields = 0;
         List<Stmt> body = block();
 
-        return new Expr.Lambda(parameters, body);
+        Expr.Lambda lambda = new Expr.Lambda(keyword, parameters, body);
+        lambda.generator = yields > 0;
+        yields = outer;
+        return lambda;
     }
 
     private Expr primary()
@@ -526,7 +651,7 @@ public class Parser {
 
             if(match(LEFT_BRACKET))
             {
-                Expr index = comma();
+                Expr index = parsePrecedence(Precedence.TERNARY);
                 consume(RIGHT_BRACKET, "Expected ']' after index.");
                 return new Expr.Dictionary(name, index);
             }
@@ -608,6 +733,7 @@ public class Parser {
                 case IF:
                 case PRINT:
                 case RETURN:
+                case YIELD:
                 case VAR:
                 case WHILE:
                     return;
@@ -627,22 +753,27 @@ public class Parser {
 
     private Token advance()
     {
-        if (!isAtEnd()) current++;
-        return previous();
+        if (!isAtEnd())
+        {
+            current++;
+            previous = next;
+            next = scanner != null ? scanner.nextToken() : tokens.get(current);
+        }
+        return previous;
     }
 
     private boolean isAtEnd()
     {
-        return peek().type == EOF;
+        return next.type == EOF;
     }
 
     private Token peek()
     {
-        return tokens.get(current);
+        return next;
     }
 
     private Token previous()
     {
-        return tokens.get(current - 1);
+        return previous;
     }
 }
@@ -0,0 +1,57 @@
+package prefect;
+
+import java.util.ArrayDeque;
+
+// Double-ended queue behind deque(). ArrayDeque can't hold null, so nil is
+// stored as a marker.
+class PrefectDeque {
+    private static final Object NIL = new Object();
+
+    private final ArrayDeque<Object> elements = new ArrayDeque<>();
+
+    int size()
+    {
+        return elements.size();
+    }
+
+    void pushBack(Object value)
+    {
+        elements.addLast(value == null ? NIL : value);
+    }
+
+    void pushFront(Object value)
+    {
+        elements.addFirst(value == null ? NIL : value);
+    }
+
+    Object popBack()
+    {
+        return unwrap(elements.pollLast());
+    }
+
+    Object popFront()
+    {
+        return unwrap(elements.pollFirst());
+    }
+
+    Object peekBack()
+    {
+        return unwrap(elements.peekLast());
+    }
+
+    Object peekFront()
+    {
+        return unwrap(elements.peekFirst());
+    }
+
+    private static Object unwrap(Object value)
+    {
+        return value == NIL ? null : value;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<deque " + elements.size() + ">";
+    }
+}
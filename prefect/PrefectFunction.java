@@ -16,6 +16,55 @@ public class PrefectFunction implements PrefectCallable {
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments)
     {
+        if (!Events.recording())
+            return trace(interpreter, arguments);
+
+        Events.FunctionCall event = new Events.FunctionCall();
+        event.begin();
+        try {
+            return trace(interpreter, arguments);
+        } finally {
+            event.finish(declaration.name);
+        }
+    }
+
+    // Charges the call to the budget, and reports it to --profile and
+    // --sample, when they're on.
+    private Object trace(Interpreter interpreter, List<Object> arguments)
+    {
+        if (interpreter.budget != null)
+            interpreter.budget.step(declaration.name.line);
+        if (interpreter.metrics != null)
+            interpreter.metrics.calls.increment();
+
+        Profiler profiler = interpreter.profiler;
+        Sampler sampler = interpreter.sampler;
+        if (profiler == null && sampler == null)
+            return invoke(interpreter, arguments);
+
+        Token name = declaration.name;
+        if (profiler != null)
+            profiler.enter(name, name.lexeme, name.line);
+        if (sampler != null)
+            sampler.push(name.lexeme, name.line);
+        try {
+            return invoke(interpreter, arguments);
+        } finally {
+            if (sampler != null)
+                sampler.pop();
+            if (profiler != null)
+                profiler.exit();
+        }
+    }
+
+    private Object invoke(Interpreter interpreter, List<Object> arguments)
+    {
+        if (declaration.body == null)
+        {
+            interpreter.parseDeferred(declaration);
+        }
+
+        interpreter.countEnvironment();
         Environment environment = new Environment(closure);
         for (int i = 0; i < declaration.params.size(); i++)
         {
@@ -26,6 +75,11 @@ public class PrefectFunction implements PrefectCallable {
             environment.define(declaration.params.get(i).lexeme, arguments.get(i));
         }
 
+        if (declaration.generator)
+        {
+            return new Generator(declaration, environment);
+        }
+
         try {
             interpreter.executeBlock(declaration.body, environment);
         } catch (Return returnValue) {
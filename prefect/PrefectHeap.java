@@ -0,0 +1,67 @@
+package prefect;
+
+import java.util.Arrays;
+
+// Min-heap of numbers behind heap(). Kept as a binary heap in a plain
+// double[], so pushing and popping never box.
+class PrefectHeap {
+    private double[] heap = new double[16];
+    private int size = 0;
+
+    int size()
+    {
+        return size;
+    }
+
+    void push(double value)
+    {
+        if (size == heap.length)
+            heap = Arrays.copyOf(heap, size * 2);
+
+        int child = size++;
+        while (child > 0)
+        {
+            int parent = (child - 1) >>> 1;
+            if (heap[parent] <= value)
+                break;
+
+            heap[child] = heap[parent];
+            child = parent;
+        }
+        heap[child] = value;
+    }
+
+    double peek()
+    {
+        return heap[0];
+    }
+
+    double pop()
+    {
+        double top = heap[0];
+        double last = heap[--size];
+
+        int parent = 0;
+        int half = size >>> 1;
+        while (parent < half)
+        {
+            int child = 2 * parent + 1;
+            if (child + 1 < size && heap[child + 1] < heap[child])
+                child++;
+            if (last <= heap[child])
+                break;
+
+            heap[parent] = heap[child];
+            parent = child;
+        }
+        heap[parent] = last;
+
+        return top;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<heap " + size + ">";
+    }
+}
@@ -0,0 +1,15 @@
+package prefect;
+
+import java.util.HashSet;
+import java.util.Set;
+
+// Hash set behind set(). Elements compare the same way dictionary keys do.
+class PrefectSet {
+    final Set<Object> elements = new HashSet<>();
+
+    @Override
+    public String toString()
+    {
+        return "<set " + elements.size() + ">";
+    }
+}
@@ -0,0 +1,27 @@
+package prefect;
+
+import java.util.Comparator;
+import java.util.TreeMap;
+
+// Red-black tree map behind sortedMap(). Keys must all be numbers or all be
+// strings, so that they have an order.
+class PrefectSortedMap {
+    private static final Comparator<Object> order = (a, b) -> {
+        if (a instanceof Long && b instanceof Long)
+            return Long.compare((long)a, (long)b);
+        if (Numbers.isNumber(a) && Numbers.isNumber(b))
+            return Double.compare(Numbers.toDouble(a), Numbers.toDouble(b));
+        if (a instanceof String && b instanceof String)
+            return ((String)a).compareTo((String)b);
+
+        throw new RuntimeError(null, "Sorted map keys must all be numbers or all be strings.");
+    };
+
+    final TreeMap<Object, Object> entries = new TreeMap<>(order);
+
+    @Override
+    public String toString()
+    {
+        return "<sortedMap " + entries.size() + ">";
+    }
+}
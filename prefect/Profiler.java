@@ -0,0 +1,110 @@
+package prefect;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+// What --profile turns on: every call to a script function or a native is
+// timed and counted, and what it allocates is taken from the thread's
+// allocation counter. Functions are told apart by the token that names them,
+// so each definition (or lambda expression) gets one line in the report.
+//
+// Total time only counts the outermost active call of a function, so that
+// recursion isn't counted twice; self time leaves out the callees.
+class Profiler {
+    private static class Entry
+    {
+        Entry(String name, int line)
+        {
+            this.name = name;
+            this.line = line;
+        }
+
+        final String name;
+        final int line; // 0 for natives.
+        long calls = 0;
+        long total = 0;
+        long self = 0;
+        long bytes = 0;
+        int active = 0;
+    }
+
+    private static class Frame
+    {
+        Entry entry;
+        long start;
+        long children;
+        long allocated;
+        long childBytes;
+    }
+
+    private final Map<Object, Entry> entries = new IdentityHashMap<>();
+    private Frame[] frames = new Frame[0];
+    private int depth = 0;
+
+    void enter(Object key, String name, int line)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            entry = new Entry(name, line);
+            entries.put(key, entry);
+        }
+        entry.calls++;
+        entry.active++;
+
+        if (depth == frames.length)
+        {
+            frames = Arrays.copyOf(frames, Math.max(16, depth * 2));
+            for (int i = depth; i < frames.length; i++)
+                frames[i] = new Frame();
+        }
+
+        Frame frame = frames[depth++];
+        frame.entry = entry;
+        frame.children = 0;
+        frame.childBytes = 0;
+        frame.allocated = Bench.allocatedBytes();
+        frame.start = System.nanoTime();
+    }
+
+    void exit()
+    {
+        long end = System.nanoTime();
+        long allocated = Bench.allocatedBytes();
+
+        Frame frame = frames[--depth];
+        Entry entry = frame.entry;
+        long elapsed = end - frame.start;
+        long bytes = allocated - frame.allocated;
+
+        entry.self += elapsed - frame.children;
+        entry.bytes += bytes - frame.childBytes;
+        if (--entry.active == 0)
+            entry.total += elapsed;
+
+        if (depth > 0)
+        {
+            frames[depth - 1].children += elapsed;
+            frames[depth - 1].childBytes += bytes;
+        }
+    }
+
+    // Sorted by self time, the biggest first.
+    void report(PrintStream out)
+    {
+        List<Entry> sorted = new ArrayList<>(entries.values());
+        sorted.sort((a, b) -> Long.compare(b.self, a.self));
+
+        out.printf("%10s %12s %12s %12s  %s%n", "calls", "total ms", "self ms", "self KB", "function");
+        for (Entry entry : sorted)
+        {
+            out.printf("%10d %12.3f %12.3f %12.1f  %s%n", entry.calls,
+                    entry.total / 1e6, entry.self / 1e6, entry.bytes / 1024.0,
+                    entry.line == 0 ? entry.name + " (native)" : entry.name + ":" + entry.line);
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package prefect;
+
+import java.io.PrintStream;
+import java.util.Map;
+
+// What --memory-quota turns on: a rough count of the bytes a script holds,
+// and a RuntimeError once that goes over the quota, so one script runs out
+// of room before the JVM it shares with others does.
+//
+// Counted are dictionary entries, elements of heaps, deques, sets and sorted
+// maps, strings built with '+', and what readAll, readFile, readNumbers,
+// keys and values return. Strings of a line or a word from the other
+// reading natives, and numbers, are only counted once stored in one of
+// those.
+//
+// Bytes are charged to the object holding them: a container for its
+// entries, the builder behind a Rope for its characters, a string read
+// whole for itself. They are given back when an entry is removed or
+// replaced, or once the collector has cleared the owner, so a container
+// that became garbage still counts until the next collection.
+class Quota {
+    // A String's own header and fields plus its array's header.
+    private static final long STRING_BYTES = 40;
+    // A deque slot and the box of its value.
+    private static final long ELEMENT_BYTES = 8 + 16;
+
+    private final long limit;
+    private final Owners charges = new Owners();
+    private long peak = 0;
+
+    Quota(long limit)
+    {
+        this.limit = limit;
+    }
+
+    // What a new entry costs its dictionary.
+    static long entryBytes(Object key, Object value)
+    {
+        return Metrics.ENTRY_BYTES + stringBytes(key) + stringBytes(value);
+    }
+
+    // What a value adds to a deque.
+    static long elementBytes(Object value)
+    {
+        return ELEMENT_BYTES + stringBytes(value);
+    }
+
+    static long dictionaryBytes(Map<Object, Object> dictionary)
+    {
+        long bytes = 0;
+        for (Map.Entry<Object, Object> entry : dictionary.entrySet())
+            bytes += entryBytes(entry.getKey(), entry.getValue());
+
+        return bytes;
+    }
+
+    static long stringBytes(Object value)
+    {
+        return value instanceof String ? STRING_BYTES + 2L * ((String)value).length() : 0;
+    }
+
+    void charge(Token where, Object owner, long bytes)
+    {
+        charges.add(owner, bytes);
+        long used = charges.total();
+        if (used > peak)
+            peak = used;
+
+        if (used > limit)
+            throw new RuntimeError(where, "Exceeded the memory quota of " + limit + " bytes.");
+    }
+
+    // An entry of owner's that now holds value instead of previous.
+    void replaced(Token where, Object owner, Object previous, Object value)
+    {
+        long grown = stringBytes(value) - stringBytes(previous);
+        if (grown > 0)
+            charge(where, owner, grown);
+        else
+            credit(owner, -grown);
+    }
+
+    // Owners that were never charged have nothing to give back.
+    void credit(Object owner, long bytes)
+    {
+        charges.add(owner, -bytes);
+    }
+
+    void report(PrintStream out)
+    {
+        out.printf("memory: %d bytes at peak, %d held at exit, quota %d%n", peak, charges.total(), limit);
+    }
+}
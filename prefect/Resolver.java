@@ -1,14 +1,40 @@
 package prefect;
 
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Stack;
 
 public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     private final Interpreter interpreter;
-    private final Stack<Map<String, Boolean>> scopes = new Stack<>();
-    private final Stack<Map<String, Token>> usages = new Stack<>();
+
+    // A local declared in one of the open scopes. Bindings of the same name
+    // are chained innermost first through 'shadowed'.
+    private static class Binding
+    {
+        Binding(Token name, int scope, Binding shadowed)
+        {
+            this.name = name;
+            this.scope = scope;
+            this.shadowed = shadowed;
+        }
+
+        Token name;
+        final int scope;
+        final Binding shadowed;
+        boolean defined = false;
+        boolean used = false;
+    }
+
+    // Innermost binding of every name in scope, so a lookup is one probe
+    // no matter how deeply scopes are nested.
+    private final Map<String, Binding> bindings = new HashMap<>();
+    // Bindings of all open scopes in declaration order; scope i owns the
+    // entries from scopeStart[i] up to the next scope's start.
+    private Binding[] declared = new Binding[64];
+    private int declaredCount = 0;
+    private int[] scopeStart = new int[16];
+    private int scopeCount = 0;
     private FunctionType currentFunction = FunctionType.NONE;
     private boolean insideLoop = false;
 
@@ -39,7 +65,10 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     {
         declare(stmt.name);
         define(stmt.name);
-        resolveFunction(stmt, FunctionType.FUNCTION);
+
+        // Deferred bodies are resolved by resolveDeferred on the first call.
+        if (stmt.body != null)
+            resolveFunction(stmt, FunctionType.FUNCTION);
 
         return null;
     }
@@ -84,6 +113,22 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         return null;
     }
 
+    @Override
+    public Void visitYieldStmt(Stmt.Yield stmt)
+    {
+        if (currentFunction == FunctionType.NONE)
+        {
+            Main.error(stmt.keyword, "Can't yield from outside of function.");
+        }
+
+        if (stmt.value != null)
+        {
+            resolve(stmt.value);
+        }
+
+        return null;
+    }
+
     @Override
     public Void visitBreakStmt(Stmt.Break stmt) {
         if(!insideLoop)
@@ -129,7 +174,8 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
     @Override
     public Void visitVariableExpr(Expr.Variable expr)
     {
-        if (!scopes.isEmpty() && scopes.peek().get(expr.name.lexeme) == Boolean.FALSE)
+        Binding binding = bindings.get(expr.name.lexeme);
+        if (binding != null && binding.scope == scopeCount - 1 && !binding.defined)
         {
             Main.error(expr.name, "Can't read local variable in its own initializer.");
         }
@@ -194,7 +240,7 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     @Override
     public Void visitLambdaExpr(Expr.Lambda expr) {
-        Stmt.Function fn = new Stmt.Function(new Token(TokenType.LAMBDA, "lambda", "", 0), expr.params, expr.body);
+        Stmt.Function fn = new Stmt.Function(expr.keyword, expr.params, expr.body);
 
         resolveFunction(fn, FunctionType.FUNCTION);
 
@@ -239,7 +285,14 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
         }
     }
 
-    private void resolve(Stmt stmt)
+    // Only top level functions are deferred, so there are no enclosing
+    // scopes to restore before resolving the body.
+    void resolveDeferred(Stmt.Function function, List<Stmt> body)
+    {
+        resolveFunction(new Stmt.Function(function.name, function.params, body), FunctionType.FUNCTION);
+    }
+
+    void resolve(Stmt stmt)
     {
         stmt.accept(this);
     }
@@ -278,55 +331,71 @@ public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
 
     private void beginScope()
     {
-        scopes.push(new HashMap<String, Boolean>());
-        usages.push(new HashMap<String, Token>());
+        if (scopeCount == scopeStart.length)
+            scopeStart = Arrays.copyOf(scopeStart, scopeCount * 2);
+
+        scopeStart[scopeCount++] = declaredCount;
     }
 
     private void endScope()
     {
-        scopes.pop();
-        usages.peek().forEach((k, v) ->
+        int start = scopeStart[--scopeCount];
+        for (int i = start; i < declaredCount; i++)
         {
-            if(v != null)
+            Binding binding = declared[i];
+            declared[i] = null;
+
+            if (!binding.used)
             {
-                Main.warning(v.line, "Local variable " + k + " is never used.");
+                Main.warning(binding.name.line, "Local variable " + binding.name.lexeme + " is never used.");
             }
-        });
-        usages.pop();
+
+            if (binding.shadowed == null)
+                bindings.remove(binding.name.lexeme);
+            else
+                bindings.put(binding.name.lexeme, binding.shadowed);
+        }
+        declaredCount = start;
     }
 
     private void declare(Token name)
     {
-        if (scopes.isEmpty())
+        if (scopeCount == 0)
             return;
 
-        Map<String, Boolean> scope = scopes.peek();
-        Map<String, Token> usage = usages.peek();
-        if(scope.containsKey(name.lexeme))
+        Binding binding = bindings.get(name.lexeme);
+        if (binding != null && binding.scope == scopeCount - 1)
         {
             Main.error(name, "Already a variable with this name in this scope.");
+            binding.name = name;
+            binding.defined = false;
+            binding.used = false;
+            return;
         }
-        scope.put(name.lexeme, false);
-        usage.put(name.lexeme, name);
+
+        binding = new Binding(name, scopeCount - 1, binding);
+        if (declaredCount == declared.length)
+            declared = Arrays.copyOf(declared, declaredCount * 2);
+
+        declared[declaredCount++] = binding;
+        bindings.put(name.lexeme, binding);
     }
 
     private void define(Token name)
     {
-        if (scopes.isEmpty())
+        if (scopeCount == 0)
             return;
-        scopes.peek().put(name.lexeme, true);
+
+        bindings.get(name.lexeme).defined = true;
     }
 
     private void resolveLocal(Expr expr, Token name)
     {
-        for (int i = scopes.size() - 1; i >= 0; i--)
+        Binding binding = bindings.get(name.lexeme);
+        if (binding != null)
         {
-            if (scopes.get(i).containsKey(name.lexeme))
-            {
-                usages.get(i).put(name.lexeme, null);
-                interpreter.resolve(expr, scopes.size() - 1 - i);
-                return;
-            }
+            binding.used = true;
+            interpreter.resolve(expr, scopeCount - 1 - binding.scope);
         }
     }
 }
@@ -0,0 +1,71 @@
+package prefect;
+
+// String built by '+' that defers copying. Appending to the newest Rope over
+// a builder just appends to that builder, so a loop growing a string takes
+// linear rather than quadratic time. Older Ropes over the same builder stay
+// valid, because they only look at the prefix up to their own length.
+//
+// Ropes are flattened into a String, and cached as one, wherever a plain
+// String is expected: printing, equality, dictionary keys and values, and
+// arguments to natives.
+class Rope {
+    // Shorter results of '+' are just concatenated.
+    static final int THRESHOLD = 256;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    Rope(String head, String tail)
+    {
+        this.builder = new StringBuilder(Math.max(THRESHOLD * 2, (head.length() + tail.length()) * 2));
+        builder.append(head).append(tail);
+        this.length = builder.length();
+    }
+
+    private Rope(StringBuilder builder)
+    {
+        this.builder = builder;
+        this.length = builder.length();
+    }
+
+    Rope append(String tail)
+    {
+        if (builder.length() == length)
+        {
+            builder.append(tail);
+            return new Rope(builder);
+        }
+
+        // Something was appended after this Rope already, so branch off.
+        StringBuilder copy = new StringBuilder((length + tail.length()) * 2);
+        copy.append(builder, 0, length).append(tail);
+        return new Rope(copy);
+    }
+
+    // What Quota charges a Rope to: its builder, which Ropes may share, and
+    // the builder's size, taking two bytes a character.
+    Object storage()
+    {
+        return builder;
+    }
+
+    long bytes()
+    {
+        return 2L * builder.capacity();
+    }
+
+    static Object flatten(Object value)
+    {
+        return value instanceof Rope ? value.toString() : value;
+    }
+
+    @Override
+    public String toString()
+    {
+        if (flat == null)
+            flat = builder.substring(0, length);
+
+        return flat;
+    }
+}
@@ -9,6 +9,8 @@ import static prefect.TokenType.*;
 
 public class Scanner {
     private static final Map<String, TokenType> keywords;
+    // Shared lexeme of each keyword, indexed by TokenType ordinal.
+    private static final String[] keywordLexemes;
 
     static
     {
@@ -30,10 +32,20 @@ public class Scanner {
         keywords.put("continue",    CONTINUE);
         keywords.put("dictionary",  DICTIONARY);
         keywords.put("lambda",      LAMBDA);
+        keywords.put("yield",       YIELD);
+
+        keywordLexemes = new String[TokenType.values().length];
+        keywords.forEach((text, type) -> keywordLexemes[type.ordinal()] = text);
     }
 
     private final String source;
     private final List<Token> tokens = new ArrayList<>();
+    private Token scanned;
+
+    // Every identifier name seen so far, so repeated names share one String.
+    // Open addressing, probed straight from the source characters.
+    private String[] names = new String[256];
+    private int nameCount = 0;
     private int start = 0;
     private int current = 0;
     private int line = 1;
@@ -43,13 +55,30 @@ public class Scanner {
     }
 
     List<Token> scanTokens() {
+        Token token;
+        do {
+            token = nextToken();
+            tokens.add(token);
+        } while (token.type != EOF);
+
+        return tokens;
+    }
+
+    // Scans just far enough to produce the next token, so a parser can pull
+    // tokens on demand. Keeps returning EOF once the source is exhausted.
+    Token nextToken() {
         while (!isAtEnd()) {
             start = current;
             scanToken();
+
+            if (scanned != null) {
+                Token token = scanned;
+                scanned = null;
+                return token;
+            }
         }
 
-        tokens.add(new Token(EOF, "", null, line));
-        return tokens;
+        return new Token(EOF, "", null, line);
     }
 
     private void scanToken() {
@@ -166,15 +195,138 @@ public class Scanner {
 
     private void identifier()
     {
+        int hash = source.charAt(start); // Same as String.hashCode.
         while (isAlphaNumeric(peek()))
-            advance();
+            hash = 31 * hash + advance();
 
-        String text = source.substring(start, current);
-        TokenType type = keywords.get(text);
+        TokenType type = keyword();
         if (type == null)
-            type = IDENTIFIER;
+        {
+            addToken(IDENTIFIER, name(hash), null);
+        }
+        else
+        {
+            addToken(type, keywordLexemes[type.ordinal()], null);
+        }
+    }
+
+    // Recognizes the keywords in the 'keywords' table without allocating,
+    // by switching on the first characters and then comparing the rest.
+    private TokenType keyword()
+    {
+        switch (source.charAt(start))
+        {
+            case 'a': return checkKeyword(1, "nd", AND);
+            case 'b': return checkKeyword(1, "reak", BREAK);
+            case 'c': return checkKeyword(1, "ontinue", CONTINUE);
+            case 'd':
+                if (current - start > 1)
+                {
+                    switch (source.charAt(start + 1))
+                    {
+                        case 'e': return checkKeyword(2, "fine", FUN);
+                        case 'i': return checkKeyword(2, "ctionary", DICTIONARY);
+                    }
+                }
+                break;
+            case 'e': return checkKeyword(1, "lse", ELSE);
+            case 'f':
+                if (current - start > 1)
+                {
+                    switch (source.charAt(start + 1))
+                    {
+                        case 'a': return checkKeyword(2, "lse", FALSE);
+                        case 'o': return checkKeyword(2, "r", FOR);
+                    }
+                }
+                break;
+            case 'i': return checkKeyword(1, "f", IF);
+            case 'l': return checkKeyword(1, "ambda", LAMBDA);
+            case 'n': return checkKeyword(1, "il", NIL);
+            case 'o': return checkKeyword(1, "r", OR);
+            case 'r': return checkKeyword(1, "eturn", RETURN);
+            case 't': return checkKeyword(1, "rue", TRUE);
+            case 'v': return checkKeyword(1, "ar", VAR);
+            case 'w': return checkKeyword(1, "hile", WHILE);
+            case 'y': return checkKeyword(1, "ield", YIELD);
+        }
 
-        addToken(type);
+        return null;
+    }
+
+    private TokenType checkKeyword(int offset, String rest, TokenType type)
+    {
+        if (current - start == offset + rest.length() &&
+                source.regionMatches(start + offset, rest, 0, rest.length()))
+        {
+            return type;
+        }
+
+        return null;
+    }
+
+    // Returns the shared String for the identifier being scanned, given its
+    // hash. Only the first occurrence of a name allocates.
+    private String name(int hash)
+    {
+        int length = current - start;
+        int mask = names.length - 1;
+        int index = slot(hash, mask);
+        while (true)
+        {
+            String name = names[index];
+            if (name == null)
+            {
+                name = source.substring(start, current);
+                names[index] = name;
+                if (++nameCount * 2 > names.length)
+                    growNames();
+
+                return name;
+            }
+
+            if (name.length() == length && isName(name))
+                return name;
+
+            index = (index + 1) & mask;
+        }
+    }
+
+    // String.hashCode gives runs of neighbouring values for names like
+    // f1, f2, ..., which would cluster under linear probing, so mix it first.
+    private static int slot(int hash, int mask)
+    {
+        hash *= 0x9E3779B9;
+        return (hash ^ (hash >>> 16)) & mask;
+    }
+
+    private boolean isName(String name)
+    {
+        for (int i = 0; i < name.length(); i++)
+        {
+            if (name.charAt(i) != source.charAt(start + i))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void growNames()
+    {
+        String[] old = names;
+        names = new String[old.length * 2];
+        int mask = names.length - 1;
+
+        for (String name : old)
+        {
+            if (name == null)
+                continue;
+
+            int index = slot(name.hashCode(), mask);
+            while (names[index] != null)
+                index = (index + 1) & mask;
+            names[index] = name;
+        }
     }
 
     private void number()
@@ -189,7 +341,7 @@ public class Scanner {
                 advance();
         }
 
-        addToken(NUMBER, Double.parseDouble(source.substring(start, current)));
+        addToken(NUMBER, Numbers.parse(source.substring(start, current)));
     }
 
     private void string()
@@ -271,7 +423,11 @@ public class Scanner {
 
     private void addToken(TokenType type, Object literal)
     {
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line));
+        addToken(type, source.substring(start, current), literal);
+    }
+
+    private void addToken(TokenType type, String text, Object literal)
+    {
+        scanned = new Token(type, text, literal, line);
     }
 }
@@ -0,0 +1,208 @@
+package prefect;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+// A lazy sequence of values. Stages like map and filter only wrap their
+// source, and nothing runs until a terminal operation such as reduce pulls
+// values through the whole chain one at a time, so a pipeline takes one pass
+// and constant memory however long its input is.
+abstract class Sequence {
+    // Returned by a cursor once it is exhausted, since nil is a valid value.
+    static final Object END = new Object();
+
+    interface Cursor
+    {
+        Object next();
+    }
+
+    // Starts a new pass. Sequences over a function, like lines(path), can
+    // only really be walked once.
+    abstract Cursor cursor(Interpreter interpreter);
+
+    // Anything the sequence natives accept as their source: a sequence, a
+    // function returning the next value (nil at the end) on every call, or a
+    // dictionary read from index 0 up to the first missing index.
+    static Sequence of(Object value)
+    {
+        if (value instanceof Sequence)
+            return (Sequence)value;
+
+        if (value instanceof PrefectCallable && ((PrefectCallable)value).arity() == 0)
+        {
+            PrefectCallable next = (PrefectCallable)value;
+            return new Sequence() {
+                @Override
+                Cursor cursor(Interpreter interpreter)
+                {
+                    List<Object> none = Arrays.asList();
+                    return () -> {
+                        Object item = next.call(interpreter, none);
+                        return item == null ? END : item;
+                    };
+                }
+            };
+        }
+
+        if (value instanceof Map<?, ?>)
+        {
+            Map<?, ?> dictionary = (Map<?, ?>)value;
+            return new Sequence() {
+                @Override
+                Cursor cursor(Interpreter interpreter)
+                {
+                    return new Cursor() {
+                        private long index = 0;
+
+                        @Override
+                        public Object next()
+                        {
+                            Object key = index;
+                            if (!dictionary.containsKey(key))
+                                return END;
+
+                            index++;
+                            return dictionary.get(key);
+                        }
+                    };
+                }
+            };
+        }
+
+        throw new RuntimeError(null, "Expected a sequence, a function or a dictionary.");
+    }
+
+    static Sequence range(double start, double end)
+    {
+        return new Sequence() {
+            @Override
+            Cursor cursor(Interpreter interpreter)
+            {
+                return new Cursor() {
+                    private double current = start;
+
+                    @Override
+                    public Object next()
+                    {
+                        if (current >= end)
+                            return END;
+
+                        return Numbers.of(current++);
+                    }
+                };
+            }
+        };
+    }
+
+    Sequence map(PrefectCallable function)
+    {
+        checkArity(function, 1);
+        Sequence source = this;
+        return new Sequence() {
+            @Override
+            Cursor cursor(Interpreter interpreter)
+            {
+                Cursor items = source.cursor(interpreter);
+                Object[] argument = new Object[1];
+                List<Object> arguments = Arrays.asList(argument);
+                return () -> {
+                    Object item = items.next();
+                    if (item == END)
+                        return END;
+
+                    argument[0] = item;
+                    return function.call(interpreter, arguments);
+                };
+            }
+        };
+    }
+
+    Sequence filter(PrefectCallable predicate)
+    {
+        checkArity(predicate, 1);
+        Sequence source = this;
+        return new Sequence() {
+            @Override
+            Cursor cursor(Interpreter interpreter)
+            {
+                Cursor items = source.cursor(interpreter);
+                Object[] argument = new Object[1];
+                List<Object> arguments = Arrays.asList(argument);
+                return () -> {
+                    while (true)
+                    {
+                        interpreter.step();
+                        Object item = items.next();
+                        if (item == END)
+                            return END;
+
+                        argument[0] = item;
+                        if (interpreter.isTrue(predicate.call(interpreter, arguments)))
+                            return item;
+                    }
+                };
+            }
+        };
+    }
+
+    Sequence take(double count)
+    {
+        Sequence source = this;
+        return new Sequence() {
+            @Override
+            Cursor cursor(Interpreter interpreter)
+            {
+                Cursor items = source.cursor(interpreter);
+                return new Cursor() {
+                    private double taken = 0;
+
+                    @Override
+                    public Object next()
+                    {
+                        // Checked before pulling, so the source isn't read
+                        // past what is needed.
+                        if (taken >= count)
+                            return END;
+
+                        taken++;
+                        return items.next();
+                    }
+                };
+            }
+        };
+    }
+
+    Object reduce(Interpreter interpreter, PrefectCallable function, Object initial)
+    {
+        checkArity(function, 2);
+        Cursor items = cursor(interpreter);
+        Object[] pair = new Object[2];
+        List<Object> arguments = Arrays.asList(pair);
+
+        Object accumulator = initial;
+        for (Object item = items.next(); item != END; item = items.next())
+        {
+            interpreter.step();
+            pair[0] = accumulator;
+            pair[1] = item;
+            accumulator = function.call(interpreter, arguments);
+        }
+
+        return accumulator;
+    }
+
+    private static void checkArity(PrefectCallable function, int arity)
+    {
+        if (function.arity() != arity)
+        {
+            throw new RuntimeError(null, "Expected a function of " + arity + " arguments but got one of " + function.arity() + ".");
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return "<sequence>";
+    }
+}
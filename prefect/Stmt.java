@@ -17,10 +17,19 @@ abstract class Stmt {
         R visitVarStmt(Var stmt);
         R visitDictionaryStmt(Dictionary stmt);
         R visitWhileStmt(While stmt);
+        R visitYieldStmt(Yield stmt);
     }
 
     abstract <R> R accept(Visitor<R> visitor);
 
+    // Set by the Parser on yield statements and on the blocks, ifs and loops
+    // around them, up to the enclosing function. Generator steps into these
+    // and runs every other statement in one go.
+    boolean yields = false;
+
+    // Line the statement starts on, set by the Parser.
+    int line = 0;
+
     static class Block extends Stmt
     {
         Block(List<Stmt> statements)
@@ -56,10 +65,24 @@ abstract class Stmt {
     static class Function extends Stmt
     {
         Function(Token name, List<Token> params, List<Stmt> body)
+        {
+            this(name, params, body, null);
+        }
+
+        private Function(Token name, List<Token> params, List<Stmt> body, List<Token> tokens)
         {
             this.name = name;
             this.params = params;
             this.body = body;
+            this.tokens = tokens;
+        }
+
+        // Deferred body: only its tokens are kept, from the '{' to the '}'
+        // and then an EOF. The body is parsed on the first call, and the
+        // tokens dropped.
+        static Function deferred(Token name, List<Token> params, List<Token> tokens)
+        {
+            return new Function(name, params, null, tokens);
         }
 
         @Override
@@ -70,7 +93,13 @@ abstract class Stmt {
 
         final Token name;
         final List<Token> params;
-        final List<Stmt> body;
+        List<Stmt> body;
+        // Whether the body yields, making calls return a Generator.
+        boolean generator = false;
+        List<Token> tokens;
+        // Set when the deferred body failed to parse or resolve, so later
+        // calls fail without reporting the same errors again.
+        boolean broken = false;
     }
 
     static class If extends Stmt
@@ -197,4 +226,22 @@ abstract class Stmt {
         final Expr condition;
         final Stmt body;
     }
+
+    static class Yield extends Stmt
+    {
+        Yield(Token keyword, Expr value)
+        {
+            this.keyword = keyword;
+            this.value = value;
+        }
+
+        @Override
+        <R> R accept(Visitor<R> visitor)
+        {
+            return visitor.visitYieldStmt(this);
+        }
+
+        final Token keyword;
+        final Expr value;
+    }
 }
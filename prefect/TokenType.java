@@ -13,7 +13,7 @@ enum TokenType {
 
     // Keywords.
     AND, CLASS, ELSE, FALSE, FUN, FOR, IF, NIL, OR, PRINT, RETURN,
-    SUPER, THIS, TRUE, VAR, WHILE, BREAK, CONTINUE, DICTIONARY, LAMBDA,
+    SUPER, THIS, TRUE, VAR, WHILE, BREAK, CONTINUE, DICTIONARY, LAMBDA, YIELD,
 
     EOF
 }
@@ -0,0 +1,21 @@
+#!/bin/sh
+# Runs every tests/*.pf and compares what it prints, errors included, with
+# the .out file next to it. Build first with mvn package, or pass the class
+# path to run against.
+cd "$(dirname "$0")" || exit 1
+classes=${1:-../target/classes}
+status=0
+
+for script in *.pf
+do
+    expected=${script%.pf}.out
+    if java -cp "$classes" prefect.Main "$script" 2>&1 | diff -u "$expected" -
+    then
+        echo "ok   $script"
+    else
+        echo "FAIL $script"
+        status=1
+    fi
+done
+
+exit $status